@@ -0,0 +1,362 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Automatic batching of single key reads. GETs (and HGETs of the same hash)
+ * issued within a micro-window are sent as one MGET (HMGET), each caller gets a
+ * future for its own element of the combined reply.
+ * <p/>
+ * A batch is sent when the window has passed since its first read, or when
+ * maxBatch reads are pending. Futures block on deref until their batch is sent,
+ * so a caller that derefs right away pays up to one window in latency.
+ * <p/>
+ * Other commands should call flush() first, so commands from one thread are
+ * sent in order.
+ * <p/>
+ * Not quite transparent: MGET returns nil for keys of the wrong type where GET
+ * returns a WRONGTYPE error, so a batched GET of eg. a list is nil.
+ */
+public class Batcher
+{
+  private static final byte[] GET = "GET".getBytes(Connection.US_ASCII);
+  private static final byte[] HGET = "HGET".getBytes(Connection.US_ASCII);
+  private static final byte[] MGET = "MGET".getBytes(Connection.US_ASCII);
+  private static final byte[] HMGET = "HMGET".getBytes(Connection.US_ASCII);
+
+  private final Client client;
+  private final ClientPool pool;
+  private final long windowNanos;
+  private final int maxBatch;
+  private final ScheduledExecutorService timer;
+
+  private final Object flushLock = new Object();
+  private Map<GroupKey, Group> pending = new LinkedHashMap<GroupKey, Group>();
+  private int pendingCount = 0;
+  private boolean scheduled = false;
+  private boolean closed = false;
+
+  // metrics
+  final AtomicLong batched = new AtomicLong();
+  final AtomicLong batches = new AtomicLong();
+
+  private final Runnable flusher = new Runnable()
+  {
+    public void run()
+    {
+      try
+      {
+        flush();
+      }
+      catch (IOException e)
+      {
+        // reported to the futures of the batch
+      }
+    }
+  };
+
+  private Batcher(Client client, ClientPool pool, long windowNanos, int maxBatch)
+  {
+    this.client = client;
+    this.pool = pool;
+    this.windowNanos = windowNanos;
+    this.maxBatch = maxBatch;
+    this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        final Thread t = new Thread(r, "labs.redis.Batcher");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  public Batcher(Client client, long windowNanos, int maxBatch)
+  {
+    this(client, null, windowNanos, maxBatch);
+  }
+
+  public Batcher(ClientPool pool, long windowNanos, int maxBatch)
+  {
+    this(null, pool, windowNanos, maxBatch);
+  }
+
+  private static boolean is(byte[] name, Object command)
+  {
+    if (command instanceof byte[])
+      return Arrays.equals(name, (byte[]) command);
+
+    return command instanceof String && new String(name, Connection.US_ASCII).equalsIgnoreCase((String) command);
+  }
+
+  public boolean batches(Object command)
+  {
+    return is(GET, command) || is(HGET, command);
+  }
+
+  /**
+   * Queues a GET key or HGET key field. Returns null if args is any other command,
+   * the caller should then flush() and send it as usual. Throws IOException once
+   * closed.
+   */
+  public LinkedReplyFuture batch(Decoder decoder, Object[] args)
+    throws IOException
+  {
+    final GroupKey key;
+    final Object element;
+    if (args.length == 2 && is(GET, args[0]))
+    {
+      key = new GroupKey(MGET, null, decoder != null ? decoder : decoderFor("GET"));
+      element = args[1];
+    }
+    else if (args.length == 3 && is(HGET, args[0]))
+    {
+      key = new GroupKey(HMGET, args[1], decoder != null ? decoder : decoderFor("HGET"));
+      element = args[2];
+    }
+    else
+      return null;
+
+    final BatchedReplyFuture f;
+    boolean full = false;
+    synchronized (this)
+    {
+      if (closed)
+        throw new IOException("Batcher closed");
+
+      Group g = pending.get(key);
+      if (g == null)
+        pending.put(key, g = new Group(key));
+
+      f = new BatchedReplyFuture(g, g.elements.size());
+      g.elements.add(element);
+
+      if (++pendingCount >= maxBatch)
+        full = true;
+      else if (!scheduled)
+      {
+        scheduled = true;
+        timer.schedule(flusher, windowNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    if (full)
+      flush();
+
+    return f;
+  }
+
+  private Decoder decoderFor(String command)
+  {
+    return client != null ? client.decoderFor(command) : pool.getDecoder(command);
+  }
+
+  /**
+   * Sends all pending batches.
+   */
+  public void flush()
+    throws IOException
+  {
+    synchronized (flushLock)
+    {
+      final Map<GroupKey, Group> groups;
+      synchronized (this)
+      {
+        if (pending.isEmpty())
+          return;
+
+        groups = pending;
+        pending = new LinkedHashMap<GroupKey, Group>();
+        pendingCount = 0;
+        scheduled = false;
+      }
+
+      IOException failure = null;
+      Client c = null;
+      try
+      {
+        c = client != null ? client : pool.borrow();
+        for (Group g : groups.values())
+        {
+          g.parent = c.pipeline(g.key.decoder, g.args());
+          batches.incrementAndGet();
+          batched.addAndGet(g.elements.size());
+        }
+      }
+      catch (IOException e)
+      {
+        failure = e;
+      }
+      finally
+      {
+        if (pool != null && c != null)
+          pool.release(c);
+
+        for (Group g : groups.values())
+        {
+          if (g.parent == null)
+            g.failure = failure != null ? failure : new IOException("Batch not sent");
+          g.sent.countDown();
+        }
+      }
+
+      if (failure != null)
+        throw failure;
+    }
+  }
+
+  /**
+   * Sends what's pending, later reads are rejected.
+   */
+  public void close()
+    throws IOException
+  {
+    synchronized (this)
+    {
+      closed = true;
+    }
+
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      timer.shutdown();
+    }
+  }
+
+  public long getBatched() { return batched.get(); }
+
+  public long getBatches() { return batches.get(); }
+
+  private static final class GroupKey
+  {
+    final byte[] command;
+    final Object hash; // HMGET key, null for MGET
+    final Decoder decoder;
+
+    GroupKey(byte[] command, Object hash, Decoder decoder)
+    {
+      this.command = command;
+      this.hash = hash;
+      this.decoder = decoder;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * System.identityHashCode(command) + Arrays.deepHashCode(new Object[]{hash}))
+        + System.identityHashCode(decoder);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof GroupKey))
+        return false;
+
+      final GroupKey k = (GroupKey) o;
+      return command == k.command && decoder == k.decoder
+        && Arrays.deepEquals(new Object[]{hash}, new Object[]{k.hash});
+    }
+  }
+
+  private static final class Group
+  {
+    final GroupKey key;
+    final List<Object> elements = new ArrayList<Object>();
+    final CountDownLatch sent = new CountDownLatch(1);
+    volatile LinkedReplyFuture parent;
+    volatile IOException failure;
+
+    Group(GroupKey key)
+    {
+      this.key = key;
+    }
+
+    Object[] args()
+    {
+      final int prefix = key.hash == null ? 1 : 2;
+      final Object[] args = new Object[prefix + elements.size()];
+      args[0] = key.command;
+      if (key.hash != null) args[1] = key.hash;
+      for (int i = 0; i < elements.size(); i++)
+        args[prefix + i] = elements.get(i);
+      return args;
+    }
+  }
+
+  /**
+   * Future for one element of a batch.
+   */
+  private static final class BatchedReplyFuture extends LinkedReplyFuture
+  {
+    private final Group group;
+    private final int index;
+
+    BatchedReplyFuture(Group group, int index)
+    {
+      super(null, null);
+      this.group = group;
+      this.index = index;
+    }
+
+    @Override
+    public boolean realizeValue()
+      throws IOException
+    {
+      get();
+      return true;
+    }
+
+    @Override
+    public boolean isPending()
+    {
+      return value == null && group.failure == null;
+    }
+
+    @Override
+    public synchronized Reply get()
+      throws IOException
+    {
+      if (value != null)
+        return value;
+
+      try
+      {
+        group.sent.await();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for batch");
+      }
+
+      if (group.failure != null)
+        throw group.failure;
+
+      final Reply r = group.parent.get();
+      value = r instanceof MultiBulkReply ? ((MultiBulkReply) r).getValue()[index] : r;
+      return value;
+    }
+  }
+}
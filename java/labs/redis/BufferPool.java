@@ -0,0 +1,197 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of direct ByteBuffers in power of two size classes. Connections lease
+ * buffers while they have data in flight and release them when idle, so idle
+ * connections hold no buffer memory.
+ * <p/>
+ * In debug mode (-Dlabs.redis.debug=true or setDebug) every lease records where it
+ * was taken, outstanding() lists leases not yet released and releasing a buffer
+ * leased in debug mode twice throws IllegalStateException. Buffers leased before
+ * debug mode was switched on are not tracked.
+ */
+public class BufferPool
+{
+  public static final int MIN_SIZE = 4096;
+  public static final int MAX_SIZE = 65536;
+
+  public static final BufferPool DEFAULT = new BufferPool(256);
+
+  private final List<Queue<ByteBuffer>> classes;
+  private final AtomicInteger[] idle;
+  private final int maxIdlePerClass;
+
+  private volatile boolean debug = Boolean.getBoolean("labs.redis.debug");
+  // buffer -> where it was leased, or RELEASED while pooled
+  private final Map<ByteBuffer, Throwable> leases = new IdentityHashMap<ByteBuffer, Throwable>();
+  private static final Throwable RELEASED = new Throwable("Released");
+
+  // metrics
+  final AtomicLong leased = new AtomicLong();
+  final AtomicLong released = new AtomicLong();
+  final AtomicLong allocated = new AtomicLong();
+  final AtomicLong allocatedBytes = new AtomicLong();
+  final AtomicLong discarded = new AtomicLong();
+
+  public BufferPool(int maxIdlePerClass)
+  {
+    this.maxIdlePerClass = maxIdlePerClass;
+    final int n = sizeClass(MAX_SIZE) + 1;
+    classes = new ArrayList<Queue<ByteBuffer>>(n);
+    idle = new AtomicInteger[n];
+    for (int i = 0; i < n; i++)
+    {
+      classes.add(new ConcurrentLinkedQueue<ByteBuffer>());
+      idle[i] = new AtomicInteger();
+    }
+  }
+
+  public void setDebug(boolean debug)
+  {
+    this.debug = debug;
+    if (!debug)
+    {
+      synchronized (leases)
+      {
+        leases.clear();
+      }
+    }
+  }
+
+  private static int sizeClass(int size)
+  {
+    int c = 0;
+    for (int s = MIN_SIZE; s < size; s <<= 1)
+      c++;
+    return c;
+  }
+
+  /**
+   * Returns a cleared buffer of at least size bytes (at most MAX_SIZE).
+   */
+  public ByteBuffer lease(int size)
+  {
+    final int c = sizeClass(Math.min(Math.max(size, MIN_SIZE), MAX_SIZE));
+    ByteBuffer b = classes.get(c).poll();
+    if (b != null)
+      idle[c].decrementAndGet();
+    else
+    {
+      b = ByteBuffer.allocateDirect(MIN_SIZE << c);
+      allocated.incrementAndGet();
+      allocatedBytes.addAndGet(b.capacity());
+    }
+
+    leased.incrementAndGet();
+    if (debug)
+    {
+      synchronized (leases)
+      {
+        leases.put(b, new Throwable("Buffer leased by " + Thread.currentThread().getName()));
+      }
+    }
+
+    b.clear();
+    return b;
+  }
+
+  public void release(ByteBuffer b)
+  {
+    final int c = sizeClass(b.capacity());
+    final boolean pooled = idle[c].incrementAndGet() <= maxIdlePerClass;
+
+    if (debug)
+    {
+      synchronized (leases)
+      {
+        // untracked buffers were leased before debug mode
+        if (leases.get(b) == RELEASED)
+        {
+          idle[c].decrementAndGet();
+          throw new IllegalStateException("Buffer released twice");
+        }
+        if (pooled)
+          leases.put(b, RELEASED);
+        else
+          leases.remove(b);
+      }
+    }
+
+    released.incrementAndGet();
+    if (pooled)
+      classes.get(c).offer(b);
+    else
+    {
+      // let GC free it
+      idle[c].decrementAndGet();
+      discarded.incrementAndGet();
+    }
+  }
+
+  /**
+   * Leases not yet released, as Throwables with the stack trace of the lease.
+   * Only tracked in debug mode.
+   */
+  public List<Throwable> outstanding()
+  {
+    synchronized (leases)
+    {
+      final List<Throwable> r = new ArrayList<Throwable>();
+      for (Throwable t : leases.values())
+        if (t != RELEASED)
+          r.add(t);
+      return r;
+    }
+  }
+
+  public long getLeased() { return leased.get() - released.get(); }
+
+  public long getLeases() { return leased.get(); }
+
+  public long getAllocated() { return allocated.get(); }
+
+  public long getAllocatedBytes() { return allocatedBytes.get(); }
+
+  public long getDiscarded() { return discarded.get(); }
+
+  public long getIdle()
+  {
+    long n = 0;
+    for (AtomicInteger i : idle)
+      n += i.get();
+    return n;
+  }
+
+  public long getIdleBytes()
+  {
+    long n = 0;
+    for (int c = 0; c < idle.length; c++)
+      n += (long) idle[c].get() * (MIN_SIZE << c);
+    return n;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BufferPool{" +
+      "leased=" + getLeased() +
+      ", idle=" + getIdle() +
+      ", allocated=" + allocated +
+      '}';
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mass insertion, the equivalent of redis-cli --pipe.
+ * <p/>
+ * Commands are written continuously by the calling thread while a reader thread
+ * consumes the replies with Connection.skip(), so no LinkedReplyFuture or Reply
+ * is allocated per command. Only errors are surfaced, together with the index of
+ * the command that caused them.
+ * <p/>
+ * The connection must not be used by anyone else while loading. If loading fails
+ * the connection is closed, since its replies can no longer be paired.
+ */
+public class BulkLoader
+{
+  public interface Listener
+  {
+    /**
+     * Called from the reader thread for each error reply, index is the
+     * zero-based position of the command in the input.
+     */
+    void error(long index, ErrorReply error);
+
+    /**
+     * Called from the reader thread every progressInterval replies.
+     */
+    void progress(long sent, long replies, long errors);
+  }
+
+  public static class Result
+  {
+    public final long sent;
+    public final long replies;
+    public final long errors;
+    public final long nanos;
+
+    Result(long sent, long replies, long errors, long nanos)
+    {
+      this.sent = sent;
+      this.replies = replies;
+      this.errors = errors;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Result{" +
+        "sent=" + sent +
+        ", replies=" + replies +
+        ", errors=" + errors +
+        ", ms=" + (nanos / 1000000) +
+        '}';
+    }
+  }
+
+  private final Connection connection;
+  private final Listener listener;
+  private final long progressInterval;
+
+  public BulkLoader(Connection connection, Listener listener, long progressInterval)
+  {
+    this.connection = connection;
+    this.listener = listener;
+    this.progressInterval = progressInterval;
+  }
+
+  /**
+   * Sends all commands (each an Object[] of command name and args) and waits
+   * for all replies. Returns when the last reply has been consumed. Anything
+   * thrown by the reader, including by the listener, is rethrown here.
+   */
+  public Result load(Iterator<?> commands)
+    throws IOException
+  {
+    final long start = System.nanoTime();
+    final Reader reader = new Reader();
+    final Thread thread = new Thread(reader, "labs.redis.BulkLoader");
+    thread.setDaemon(true);
+    thread.start();
+
+    boolean ok = false;
+    IOException writeFailure = null;
+    try
+    {
+      long n = 0;
+      while (reader.failure == null && commands.hasNext())
+      {
+        connection.sendBulk((Object[]) commands.next());
+        reader.sent = ++n;
+      }
+      connection.flush();
+      ok = true;
+    }
+    catch (IOException e)
+    {
+      // the reader closing the connection on failure ends up here too
+      writeFailure = e;
+    }
+    finally
+    {
+      // unblocks the reader if we failed half-way
+      if (!ok) connection.close();
+
+      reader.done = true;
+      LockSupport.unpark(thread);
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        connection.close();
+        throw new InterruptedIOException("Interrupted waiting for bulk replies");
+      }
+    }
+
+    final Throwable failure = reader.failure;
+    if (failure != null)
+    {
+      connection.close();
+      if (failure instanceof IOException)
+        throw (IOException) failure;
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      throw new IOException("Bulk load failed", failure);
+    }
+
+    if (writeFailure != null)
+      throw writeFailure;
+
+    if (reader.replies < reader.sent)
+    {
+      connection.close();
+      throw new IOException("Bulk load ended with " + (reader.sent - reader.replies) + " unread replies");
+    }
+
+    return new Result(reader.sent, reader.replies, reader.errors, System.nanoTime() - start);
+  }
+
+  private class Reader implements Runnable
+  {
+    volatile long sent = 0;
+    volatile boolean done = false;
+    volatile Throwable failure = null;
+    volatile long replies = 0;
+    long errors = 0;
+
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          // read done before sent, the writer sets them in the opposite order
+          final boolean finished = done;
+          if (replies < sent)
+          {
+            final ErrorReply error = connection.skip();
+            if (error != null)
+            {
+              errors++;
+              if (listener != null) listener.error(replies, error);
+            }
+
+            replies++;
+            if (listener != null && progressInterval > 0 && replies % progressInterval == 0)
+              listener.progress(sent, replies, errors);
+          }
+          else if (finished)
+            break;
+          else
+            LockSupport.parkNanos(100000L);
+        }
+
+        if (listener != null)
+          listener.progress(sent, replies, errors);
+      }
+      catch (Throwable t)
+      {
+        // replies can't be paired with commands anymore, also stops the writer
+        failure = t;
+        try
+        {
+          connection.close();
+        }
+        catch (IOException e)
+        {
+          // already failing
+        }
+      }
+    }
+  }
+}
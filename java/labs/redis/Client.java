@@ -7,9 +7,13 @@ package labs.redis;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Client
 {
@@ -20,6 +24,13 @@ public class Client
   private static final byte[] PING_BYTES = "PING".getBytes(US_ASCII);
 
   private final Map<String, byte[]> evalCache = new HashMap<String, byte[]>(16);
+
+  // per-command decoders, keyed by upper case command name
+  private final Map<String, Decoder> decoders = new ConcurrentHashMap<String, Decoder>();
+  // command name instance -> decoder or NO_DECODER, generated fns reuse their name bytes
+  private final Map<Object, Object> decoderCache = new IdentityHashMap<Object, Object>();
+  private static final Object NO_DECODER = new Object();
+
   public final Connection protocol;
   protected LinkedReplyFuture tail = null;
 
@@ -29,6 +40,15 @@ public class Client
     protocol = new Connection(socket);
   }
 
+  /**
+   * Client over a unix domain socket, see SocketFactory.newChannel.
+   */
+  public Client(final SocketChannel channel)
+    throws IOException
+  {
+    protocol = new Connection(channel);
+  }
+
   public Client(String host, int port)
     throws IOException
   {
@@ -49,11 +69,81 @@ public class Client
   }
 
 
+  /**
+   * Enables transparent compression of large values, null disables.
+   */
+  public void setCodec(CompressionCodec codec)
+  {
+    protocol.codec = codec;
+  }
+
+  public CompressionCodec getCodec()
+  {
+    return protocol.codec;
+  }
+
+  /**
+   * Decode bulk replies of command with decoder, null removes.
+   */
+  public synchronized void setDecoder(String command, Decoder decoder)
+  {
+    if (decoder == null)
+      decoders.remove(command.toUpperCase());
+    else
+      decoders.put(command.toUpperCase(), decoder);
+    decoderCache.clear();
+  }
+
+  public Map<String, Decoder> getDecoders()
+  {
+    return decoders;
+  }
+
+  synchronized Decoder decoderFor(Object command)
+  {
+    if (decoders.isEmpty() || command == null)
+      return null;
+
+    Object d = decoderCache.get(command);
+    if (d == null)
+    {
+      final String name = command instanceof byte[] ? new String((byte[]) command, US_ASCII) : command.toString();
+      d = decoders.get(name.toUpperCase());
+      if (d == null) d = NO_DECODER;
+
+      if (decoderCache.size() > 256) decoderCache.clear();
+      decoderCache.put(command, d);
+    }
+
+    return d == NO_DECODER ? null : (Decoder) d;
+  }
+
   public synchronized LinkedReplyFuture pipeline(Object... o)
     throws IOException
+  {
+    return pipeline(decoderFor(o.length > 0 ? o[0] : null), o);
+  }
+
+  /**
+   * Like pipeline(Object...) but bulk replies are decoded with decoder.
+   */
+  public synchronized LinkedReplyFuture pipeline(Decoder decoder, Object... o)
+    throws IOException
   {
     send(o);
-    this.tail = new LinkedReplyFuture(protocol, this.tail);
+    this.tail = new LinkedReplyFuture(protocol, this.tail, decoder);
+    return this.tail;
+  }
+
+  /**
+   * Like pipeline(Decoder, Object...) but a multi bulk reply of plain bulks is read in
+   * compact form, for MultiBulkReply.strings() and bytes(i). decoder may be null.
+   */
+  public synchronized LinkedReplyFuture pipelineCompact(Decoder decoder, Object... o)
+    throws IOException
+  {
+    send(o);
+    this.tail = new LinkedReplyFuture(protocol, this.tail, decoder, true);
     return this.tail;
   }
 
@@ -111,6 +201,17 @@ public class Client
     return this.tail;
   }
 
+  /**
+   * Mass insertion of commands (Object[]s), replies are skipped and only errors
+   * reported to listener. Outstanding futures are realized first.
+   */
+  public synchronized BulkLoader.Result bulkLoad(Iterator<?> commands, BulkLoader.Listener listener, long progressInterval)
+    throws IOException
+  {
+    if (tail != null) tail.ensure();
+    return new BulkLoader(protocol, listener, progressInterval).load(commands);
+  }
+
   /**
    * EXEC and update tail with results
    */
@@ -124,14 +225,15 @@ public class Client
     final MultiBulkReply exec = (MultiBulkReply) pipeline("EXEC").get();
 
     // update tail
-    for (int i = exec.values.length - 1; i >= 0; i--)
+    final Reply[] values = exec.getValue();
+    for (int i = values.length - 1; i >= 0; i--)
     {
       // assertions
       if (t == null) throw new IllegalStateException("Missing tail");
       if (t.value != StatusReply.QUEUED)
         throw new IllegalStateException("Currupt tail, expected QUEUED, got " + t.value.getValue());
 
-      t.value = exec.values[i];
+      t.value = values[i];
       t = t.tail;
     }
 
@@ -6,20 +6,37 @@
 package labs.redis;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientPool
 {
   private final Queue<Client> queue = new ArrayBlockingQueue<Client>(100, true);
   private final String host;
   private final int port;
+  private final String path;
   private final boolean testOnBorrow;
+  private volatile CompressionCodec codec;
+  private final Map<String, Decoder> decoders = new ConcurrentHashMap<String, Decoder>();
 
   public ClientPool(String host, int port, boolean testOnBorrow)
   {
     this.host = host;
     this.port = port;
+    this.path = null;
+    this.testOnBorrow = testOnBorrow;
+  }
+
+  /**
+   * Pool of clients connected to the unix domain socket at path.
+   */
+  public ClientPool(String path, boolean testOnBorrow)
+  {
+    this.host = null;
+    this.port = -1;
+    this.path = path;
     this.testOnBorrow = testOnBorrow;
   }
 
@@ -28,6 +45,35 @@ public class ClientPool
     this("localhost",6379, testOnBorrow);
   }
 
+  /**
+   * Codec for clients created from now on, shared by all of them.
+   */
+  public void setCodec(CompressionCodec codec)
+  {
+    this.codec = codec;
+  }
+
+  public CompressionCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Per-command decoder for clients created from now on, see Client.setDecoder.
+   */
+  public void setDecoder(String command, Decoder decoder)
+  {
+    if (decoder == null)
+      decoders.remove(command.toUpperCase());
+    else
+      decoders.put(command.toUpperCase(), decoder);
+  }
+
+  Decoder getDecoder(String command)
+  {
+    return decoders.get(command);
+  }
+
   public synchronized int size() { return queue.size(); }
 
   public synchronized Client borrow()
@@ -43,7 +89,13 @@ public class ClientPool
         return borrow();
     }
 
-    return new Client(SocketFactory.newSocket(host, port));
+    final Client c = path != null
+      ? new Client(SocketFactory.newChannel(path))
+      : new Client(SocketFactory.newSocket(host, port));
+    c.setCodec(codec);
+    for (Map.Entry<String, Decoder> e : decoders.entrySet())
+      c.setDecoder(e.getKey(), e.getValue());
+    return c;
   }
 
   public synchronized void release(Client client)
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight for read commands. While a command is in flight (sent, reply not
+ * yet received) callers sending the same command and args get the same
+ * LinkedReplyFuture instead of sending it again.
+ * <p/>
+ * Only use outside MULTI/EXEC. A coalesced reply may have been sent slightly
+ * before the caller asked, which is the point, but never before a write the
+ * caller sent: invalidate() after each command that isn't coalesced.
+ */
+public class Coalescer
+{
+  public static final String[] READ_COMMANDS = {
+    "GET", "MGET", "GETRANGE", "STRLEN", "EXISTS", "TTL", "TYPE",
+    "HGET", "HMGET", "HGETALL", "HKEYS", "HVALS", "HLEN", "HEXISTS",
+    "LRANGE", "LINDEX", "LLEN",
+    "SMEMBERS", "SISMEMBER", "SCARD",
+    "ZRANGE", "ZREVRANGE", "ZRANGEBYSCORE", "ZREVRANGEBYSCORE", "ZSCORE", "ZRANK", "ZREVRANK", "ZCARD", "ZCOUNT"
+  };
+
+  private final Set<String> commands;
+  private final ConcurrentHashMap<Key, Flight> inflight = new ConcurrentHashMap<Key, Flight>();
+
+  // metrics
+  final AtomicLong sent = new AtomicLong();
+  final AtomicLong saved = new AtomicLong();
+
+  public Coalescer(String... commands)
+  {
+    this.commands = new HashSet<String>();
+    for (String c : commands)
+      this.commands.add(c.toUpperCase());
+  }
+
+  public Coalescer()
+  {
+    this(READ_COMMANDS);
+  }
+
+  public boolean coalesces(Object command)
+  {
+    final String name = command instanceof byte[]
+      ? new String((byte[]) command, Connection.US_ASCII)
+      : String.valueOf(command);
+    return commands.contains(name.toUpperCase());
+  }
+
+  /**
+   * Pipelines args on client unless an identical command (and decoder) is in flight.
+   */
+  public LinkedReplyFuture pipeline(Client client, Decoder decoder, Object[] args)
+    throws IOException
+  {
+    return pipeline(client, null, decoder, false, args);
+  }
+
+  /**
+   * Like pipeline(Client, Decoder, Object[]), reading the reply in compact form if
+   * compact (see Client.pipelineCompact).
+   */
+  public LinkedReplyFuture pipeline(Client client, Decoder decoder, boolean compact, Object[] args)
+    throws IOException
+  {
+    return pipeline(client, null, decoder, compact, args);
+  }
+
+  /**
+   * Like pipeline(Client, Decoder, Object[]) but borrows a client from pool only when
+   * the command has to be sent.
+   */
+  public LinkedReplyFuture pipeline(ClientPool pool, Decoder decoder, Object[] args)
+    throws IOException
+  {
+    return pipeline(null, pool, decoder, false, args);
+  }
+
+  /**
+   * Like pipeline(Client, Decoder, boolean, Object[]) but borrows a client from pool
+   * only when the command has to be sent.
+   */
+  public LinkedReplyFuture pipeline(ClientPool pool, Decoder decoder, boolean compact, Object[] args)
+    throws IOException
+  {
+    return pipeline(null, pool, decoder, compact, args);
+  }
+
+  private LinkedReplyFuture pipeline(Client client, ClientPool pool, Decoder decoder, boolean compact, Object[] args)
+    throws IOException
+  {
+    final Key key = new Key(args, decoder, compact);
+
+    for (;;)
+    {
+      Flight flight = inflight.get(key);
+      if (flight == null)
+      {
+        final Flight mine = new Flight();
+        flight = inflight.putIfAbsent(key, mine);
+        if (flight == null)
+          return send(client, pool, decoder, compact, args, key, mine);
+      }
+
+      // waits only for the send of this key, not for the reply
+      final LinkedReplyFuture f = flight.await();
+      if (f != null && f.isPending())
+      {
+        saved.incrementAndGet();
+        return f;
+      }
+
+      inflight.remove(key, flight);
+    }
+  }
+
+  private LinkedReplyFuture send(Client client, ClientPool pool, Decoder decoder, boolean compact, Object[] args,
+                                  final Key key, final Flight flight)
+    throws IOException
+  {
+    LinkedReplyFuture f = null;
+    try
+    {
+      if (pool == null)
+        f = send(client, decoder, compact, args);
+      else
+      {
+        final Client c = pool.borrow();
+        try
+        {
+          f = send(c, decoder, compact, args);
+        }
+        finally
+        {
+          pool.release(c);
+        }
+      }
+      sent.incrementAndGet();
+    }
+    finally
+    {
+      // null makes waiters send themselves
+      flight.set(f);
+      if (f == null) inflight.remove(key, flight);
+    }
+
+    final LinkedReplyFuture future = f;
+    future.onRealized(new Runnable()
+    {
+      public void run()
+      {
+        inflight.remove(key, flight);
+      }
+    });
+    return future;
+  }
+
+  private static LinkedReplyFuture send(Client client, Decoder decoder, boolean compact, Object[] args)
+    throws IOException
+  {
+    if (compact)
+      return client.pipelineCompact(decoder, args);
+    return decoder == null ? client.pipeline(args) : client.pipeline(decoder, args);
+  }
+
+  /**
+   * Forgets all commands in flight, so later calls send their own. Call after
+   * sending a write so a read issued after it is never coalesced onto one sent
+   * before it.
+   */
+  public void invalidate()
+  {
+    if (!inflight.isEmpty())
+      inflight.clear();
+  }
+
+  public long getSent() { return sent.get(); }
+
+  public long getSaved() { return saved.get(); }
+
+  /**
+   * Commands in flight. Also drops entries of failed connections whose futures
+   * were never read.
+   */
+  public int getInflight()
+  {
+    for (Map.Entry<Key, Flight> e : inflight.entrySet())
+      if (e.getValue().isDone())
+        inflight.remove(e.getKey(), e.getValue());
+    return inflight.size();
+  }
+
+  /**
+   * A command being sent, then its future.
+   */
+  private static final class Flight
+  {
+    private LinkedReplyFuture future;
+    private boolean set;
+
+    synchronized void set(LinkedReplyFuture future)
+    {
+      this.future = future;
+      this.set = true;
+      notifyAll();
+    }
+
+    synchronized LinkedReplyFuture await()
+    {
+      boolean interrupted = false;
+      while (!set)
+      {
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      return future;
+    }
+
+    synchronized boolean isDone()
+    {
+      return set && (future == null || !future.isPending());
+    }
+  }
+
+  private static final class Key
+  {
+    private final Object[] args;
+    private final Decoder decoder;
+    private final boolean compact;
+    private final int hash;
+
+    Key(Object[] args, Decoder decoder, boolean compact)
+    {
+      this.args = args;
+      this.decoder = decoder;
+      this.compact = compact;
+      this.hash = 31 * Arrays.deepHashCode(args) + (decoder == null ? 0 : System.identityHashCode(decoder)) + (compact ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+        return false;
+
+      final Key k = (Key) o;
+      return hash == k.hash && decoder == k.decoder && compact == k.compact && Arrays.deepEquals(args, k.args);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "Coalescer{" +
+      "sent=" + sent +
+      ", saved=" + saved +
+      ", inflight=" + inflight.size() +
+      '}';
+  }
+}
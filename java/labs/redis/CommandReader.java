@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads commands for BulkLoader from a stream, each an Object[] of byte[] args.
+ * <p/>
+ * Commands are either in the Redis protocol, as taken by redis-cli --pipe
+ * (*2\r\n$3\r\nGET\r\n$1\r\nk\r\n), so args can hold anything, or inline, one
+ * command per line with args separated by whitespace and quoted like in redis-cli:
+ * "double quoted" with \n \r \t \b \a \\ \" and \xHH escapes, or 'single quoted'
+ * with \' only. Both can be mixed, blank lines are skipped. A malformed command
+ * throws IllegalArgumentException, a failing stream a RuntimeException.
+ * <p/>
+ * Wrap the stream in a BufferedInputStream, it's read a byte at a time.
+ */
+public class CommandReader implements Iterator<Object[]>
+{
+  private final InputStream is;
+  private Object[] next;
+  private long count = 0;
+
+  public CommandReader(InputStream is)
+  {
+    this.is = is;
+  }
+
+  public boolean hasNext()
+  {
+    if (next == null)
+    {
+      try
+      {
+        next = read();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+
+    return next != null;
+  }
+
+  public Object[] next()
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    final Object[] r = next;
+    next = null;
+    return r;
+  }
+
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  private Object[] read()
+    throws IOException
+  {
+    int c;
+    do
+    {
+      c = is.read();
+    }
+    while (c == ' ' || c == '\t' || c == Connection.CR || c == Connection.LF);
+
+    if (c == -1)
+      return null;
+
+    count++;
+    return c == MultiBulkReply.MARKER ? readMultiBulk() : split(readLine(c));
+  }
+
+  private Object[] readMultiBulk()
+    throws IOException
+  {
+    final long size = parseLong(readLine(-1));
+    if (size < 1 || size > 1024 * 1024)
+      throw error("Invalid multi bulk length " + size);
+
+    final Object[] args = new Object[(int) size];
+    for (int i = 0; i < args.length; i++)
+    {
+      if (is.read() != BulkReply.MARKER)
+        throw error("Expected '$'");
+
+      final long length = parseLong(readLine(-1));
+      if (length < 0 || length > Integer.MAX_VALUE - 8)
+        throw error("Invalid bulk length " + length);
+
+      final byte[] b = new byte[(int) length];
+      int n = 0;
+      while (n < b.length)
+      {
+        final int r = is.read(b, n, b.length - n);
+        if (r == -1)
+          throw error("Unexpected end of stream");
+        n += r;
+      }
+
+      if (is.read() != Connection.CR || is.read() != Connection.LF)
+        throw error("Expected CRLF after bulk");
+      args[i] = b;
+    }
+
+    return args;
+  }
+
+  /**
+   * Reads up to the next LF, starting with c unless -1, without the line ending.
+   */
+  private byte[] readLine(int c)
+    throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+    if (c != -1)
+      out.write(c);
+
+    while ((c = is.read()) != -1 && c != Connection.LF)
+      out.write(c);
+
+    final byte[] b = out.toByteArray();
+    return b.length > 0 && b[b.length - 1] == Connection.CR ? Arrays.copyOf(b, b.length - 1) : b;
+  }
+
+  private long parseLong(byte[] b)
+  {
+    try
+    {
+      return Long.parseLong(new String(b, Connection.US_ASCII));
+    }
+    catch (NumberFormatException e)
+    {
+      throw error("Invalid number '" + new String(b, Connection.US_ASCII) + "'");
+    }
+  }
+
+  /**
+   * Splits an inline command like redis-cli (sdssplitargs).
+   */
+  private Object[] split(byte[] b)
+  {
+    final List<byte[]> args = new ArrayList<byte[]>();
+    int i = 0;
+    while (true)
+    {
+      while (i < b.length && isSpace(b[i]))
+        i++;
+      if (i == b.length)
+        break;
+
+      final ByteArrayOutputStream arg = new ByteArrayOutputStream();
+      boolean quoted = false;
+      boolean single = false;
+      boolean done = false;
+      while (!done)
+      {
+        if (quoted)
+        {
+          if (i == b.length)
+            throw error("Unbalanced quotes");
+
+          final byte c = b[i];
+          if (c == '\\' && i + 3 < b.length && b[i + 1] == 'x' && isHex(b[i + 2]) && isHex(b[i + 3]))
+          {
+            arg.write(Character.digit(b[i + 2], 16) * 16 + Character.digit(b[i + 3], 16));
+            i += 3;
+          }
+          else if (c == '\\' && i + 1 < b.length)
+          {
+            i++;
+            switch (b[i])
+            {
+              case 'n': arg.write('\n'); break;
+              case 'r': arg.write('\r'); break;
+              case 't': arg.write('\t'); break;
+              case 'b': arg.write('\b'); break;
+              case 'a': arg.write(7); break;
+              default: arg.write(b[i]);
+            }
+          }
+          else if (c == '"')
+          {
+            if (i + 1 < b.length && !isSpace(b[i + 1]))
+              throw error("Closing quote must be followed by a space");
+            done = true;
+          }
+          else
+            arg.write(c);
+        }
+        else if (single)
+        {
+          if (i == b.length)
+            throw error("Unbalanced quotes");
+
+          final byte c = b[i];
+          if (c == '\\' && i + 1 < b.length && b[i + 1] == '\'')
+          {
+            i++;
+            arg.write('\'');
+          }
+          else if (c == '\'')
+          {
+            if (i + 1 < b.length && !isSpace(b[i + 1]))
+              throw error("Closing quote must be followed by a space");
+            done = true;
+          }
+          else
+            arg.write(c);
+        }
+        else if (i == b.length || isSpace(b[i]))
+          break;
+        else if (b[i] == '"')
+          quoted = true;
+        else if (b[i] == '\'')
+          single = true;
+        else
+          arg.write(b[i]);
+
+        i++;
+      }
+      args.add(arg.toByteArray());
+    }
+
+    return args.toArray(new Object[args.size()]);
+  }
+
+  private static boolean isSpace(byte c)
+  {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  private static boolean isHex(byte c)
+  {
+    return Character.digit(c, 16) != -1;
+  }
+
+  private IllegalArgumentException error(String message)
+  {
+    return new IllegalArgumentException(message + " in command " + count);
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+package labs.redis;
+
+/**
+ * A bulk reply carrying a value written by a CompressionCodec. bytes is the value
+ * as stored, getValue() inflates it on first use (and throws IllegalStateException
+ * if it's corrupt).
+ */
+public class CompressedBulkReply extends BulkReply
+{
+  private final CompressionCodec codec;
+  private volatile byte[] value;
+
+  public CompressedBulkReply(byte[] bytes, CompressionCodec codec)
+  {
+    super(bytes);
+    this.codec = codec;
+  }
+
+  @Override
+  public byte[] getValue()
+  {
+    byte[] v = value;
+    if (v == null)
+      v = inflate();
+
+    return v;
+  }
+
+  private synchronized byte[] inflate()
+  {
+    if (value == null)
+      value = codec.decode(bytes);
+
+    return value;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CompressedBulkReply{" +
+      "bytes=" + bytes.length +
+      '}';
+  }
+}
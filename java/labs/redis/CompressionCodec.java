@@ -0,0 +1,331 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transparent value compression. Values (see isValue, keys and fields are never
+ * touched) at or above threshold bytes are deflated and marked with a header when
+ * written, bulk replies carrying the header are inflated when read.
+ * <p/>
+ * Header is 0xFE 'L' 'Z' 0x01 followed by the uncompressed length (4 bytes, big endian).
+ * Values that don't shrink are sent as-is, unless they start with 0xFE 'L' 'Z' 0x00
+ * or 0x01 themselves, then they are escaped with a 0xFE 'L' 'Z' 0x00 header. Thread-safe,
+ * one codec can be shared by all clients in a pool.
+ * <p/>
+ * Replies are inflated lazily, see CompressedBulkReply. A value written without a
+ * codec is only misread if it starts with a deflate header and a plausible length,
+ * or with two headers.
+ */
+public class CompressionCodec
+{
+  private static final byte[] MAGIC = {(byte) 0xFE, 'L', 'Z', 1};
+  private static final byte STORED = 0;
+  private static final byte DEFLATED = 1;
+  private static final int HEADER_LENGTH = MAGIC.length + 4;
+  // deflate can't do better than about 1:1032, and redis won't store more than 512MB
+  private static final int MAX_RATIO = 1032;
+  private static final int MAX_LENGTH = 512 * 1024 * 1024;
+
+  // command names (upper case ASCII) and their {index of first value arg, step to the
+  // next (0 if just one)}, matched on the name bytes so writes don't build Strings
+  private static final byte[][] NAMES = new byte[15][];
+  private static final int[][] VALUES = new int[15][];
+  private static int commands = 0;
+
+  static
+  {
+    values(2, 0, "SET", "SETNX", "GETSET");
+    values(3, 0, "SETEX", "PSETEX", "HSETNX", "LSET");
+    values(2, 2, "MSET", "MSETNX");
+    values(3, 2, "HSET", "HMSET");
+    values(2, 1, "LPUSH", "RPUSH", "LPUSHX", "RPUSHX");
+  }
+
+  private static void values(int first, int step, String... names)
+  {
+    for (String c : names)
+    {
+      NAMES[commands] = c.getBytes(Connection.US_ASCII);
+      VALUES[commands++] = new int[]{first, step};
+    }
+  }
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final int threshold;
+  private final int level;
+
+  private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>()
+  {
+    @Override
+    protected Deflater initialValue()
+    {
+      return new Deflater(level);
+    }
+  };
+
+  private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>()
+  {
+    @Override
+    protected Inflater initialValue()
+    {
+      return new Inflater();
+    }
+  };
+
+  // metrics
+  final AtomicLong compressed = new AtomicLong();
+  final AtomicLong rawBytes = new AtomicLong();
+  final AtomicLong compressedBytes = new AtomicLong();
+  final AtomicLong compressNanos = new AtomicLong();
+  final AtomicLong decompressed = new AtomicLong();
+  final AtomicLong decompressNanos = new AtomicLong();
+
+  public CompressionCodec(int threshold, int level)
+  {
+    this.threshold = threshold;
+    this.level = level;
+  }
+
+  public CompressionCodec(int threshold)
+  {
+    this(threshold, Deflater.BEST_SPEED);
+  }
+
+  public int getThreshold()
+  {
+    return threshold;
+  }
+
+  /**
+   * Value positions of command (its name) for isValue, null if none of its args are
+   * compressed. Values of other commands (APPEND, SETRANGE, set members, ...) are
+   * compared or modified by the server and are sent as-is.
+   */
+  public static int[] values(Object command)
+  {
+    if (command instanceof byte[])
+      return values((byte[]) command);
+
+    final String s = String.valueOf(command);
+    for (int i = 0; i < commands; i++)
+      if (NAMES[i].length == s.length() && matches(NAMES[i], s))
+        return VALUES[i];
+    return null;
+  }
+
+  private static int[] values(byte[] command)
+  {
+    for (int i = 0; i < commands; i++)
+      if (NAMES[i].length == command.length && matches(NAMES[i], command))
+        return VALUES[i];
+    return null;
+  }
+
+  private static boolean matches(byte[] name, byte[] command)
+  {
+    for (int i = 0; i < name.length; i++)
+      if (name[i] != (command[i] & 0xDF))
+        return false;
+    return true;
+  }
+
+  private static boolean matches(byte[] name, String command)
+  {
+    for (int i = 0; i < name.length; i++)
+      if (name[i] != (command.charAt(i) & 0xFFDF))
+        return false;
+    return true;
+  }
+
+  public static boolean isValue(int[] values, int i)
+  {
+    return values != null && i >= values[0]
+      && (values[1] == 0 ? i == values[0] : (i - values[0]) % values[1] == 0);
+  }
+
+  public byte[] encode(byte[] b)
+  {
+    if (b.length < threshold)
+      return escape(b);
+
+    final long start = cpuTime();
+    final Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setInput(b);
+    deflater.finish();
+
+    // no point in keeping a result larger than the input
+    final byte[] out = new byte[b.length];
+    System.arraycopy(MAGIC, 0, out, 0, MAGIC.length);
+    writeInt(out, MAGIC.length, b.length);
+    int length = HEADER_LENGTH;
+    while (!deflater.finished() && length < out.length)
+      length += deflater.deflate(out, length, out.length - length);
+
+    compressNanos.addAndGet(cpuTime() - start);
+    if (!deflater.finished())
+      return escape(b);
+
+    compressed.incrementAndGet();
+    rawBytes.addAndGet(b.length);
+    compressedBytes.addAndGet(length);
+
+    final byte[] r = new byte[length];
+    System.arraycopy(out, 0, r, 0, length);
+    return r;
+  }
+
+  public boolean isEncoded(byte[] b)
+  {
+    return b != null && isEncoded(b, 0, b.length);
+  }
+
+  /**
+   * True for values with a header: deflated ones with a plausible uncompressed
+   * length, escaped (STORED) ones only if the value behind the header starts with
+   * a header itself, as nothing else gets escaped. Values written without a codec
+   * that happen to pass these checks are still taken as encoded.
+   */
+  public boolean isEncoded(byte[] b, int offset, int length)
+  {
+    if (!hasHeader(b, offset, length))
+      return false;
+
+    if (b[offset + 3] == STORED)
+      return hasHeader(b, offset + MAGIC.length, length - MAGIC.length);
+
+    return length >= HEADER_LENGTH
+      && isPlausible(readInt(b, offset + MAGIC.length), length - HEADER_LENGTH);
+  }
+
+  private static boolean hasHeader(byte[] b, int offset, int length)
+  {
+    return length >= MAGIC.length
+      && b[offset] == MAGIC[0] && b[offset + 1] == MAGIC[1] && b[offset + 2] == MAGIC[2]
+      && (b[offset + 3] == STORED || b[offset + 3] == DEFLATED);
+  }
+
+  private static boolean isPlausible(int length, int compressed)
+  {
+    return length >= 0 && length <= MAX_LENGTH && length <= (long) compressed * MAX_RATIO + 64;
+  }
+
+  /**
+   * Values that would be mistaken for encoded ones get a STORED header.
+   */
+  private static byte[] escape(byte[] b)
+  {
+    if (!hasHeader(b, 0, b.length))
+      return b;
+
+    final byte[] r = new byte[b.length + MAGIC.length];
+    System.arraycopy(MAGIC, 0, r, 0, MAGIC.length - 1);
+    r[MAGIC.length - 1] = STORED;
+    System.arraycopy(b, 0, r, MAGIC.length, b.length);
+    return r;
+  }
+
+  public byte[] decode(byte[] b)
+  {
+    if (b[MAGIC.length - 1] == STORED)
+    {
+      if (!hasHeader(b, MAGIC.length, b.length - MAGIC.length))
+        throw new IllegalStateException("Corrupt escaped value");
+      return Arrays.copyOfRange(b, MAGIC.length, b.length);
+    }
+
+    final int size = readInt(b, MAGIC.length);
+    if (!isPlausible(size, b.length - HEADER_LENGTH))
+      throw new IllegalStateException("Corrupt compressed value, length " + size);
+
+    final long start = cpuTime();
+    final Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(b, HEADER_LENGTH, b.length - HEADER_LENGTH);
+
+    final byte[] out = new byte[size];
+    try
+    {
+      int length = 0;
+      while (length < out.length && !inflater.finished())
+      {
+        int n = inflater.inflate(out, length, out.length - length);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new IllegalStateException("Truncated compressed value");
+        length += n;
+      }
+    }
+    catch (DataFormatException e)
+    {
+      throw new IllegalStateException("Corrupt compressed value", e);
+    }
+
+    decompressed.incrementAndGet();
+    decompressNanos.addAndGet(cpuTime() - start);
+    return out;
+  }
+
+  /**
+   * Compressed size / uncompressed size for all values compressed so far.
+   */
+  public double ratio()
+  {
+    final long raw = rawBytes.get();
+    return raw == 0 ? 1.0 : (double) compressedBytes.get() / raw;
+  }
+
+  public long getCompressed() { return compressed.get(); }
+
+  public long getRawBytes() { return rawBytes.get(); }
+
+  public long getCompressedBytes() { return compressedBytes.get(); }
+
+  public long getCompressNanos() { return compressNanos.get(); }
+
+  public long getDecompressed() { return decompressed.get(); }
+
+  public long getDecompressNanos() { return decompressNanos.get(); }
+
+  private static long cpuTime()
+  {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  private static void writeInt(byte[] b, int offset, int v)
+  {
+    b[offset] = (byte) (v >>> 24);
+    b[offset + 1] = (byte) (v >>> 16);
+    b[offset + 2] = (byte) (v >>> 8);
+    b[offset + 3] = (byte) v;
+  }
+
+  private static int readInt(byte[] b, int offset)
+  {
+    return ((b[offset] & 0xFF) << 24)
+      | ((b[offset + 1] & 0xFF) << 16)
+      | ((b[offset + 2] & 0xFF) << 8)
+      | (b[offset + 3] & 0xFF);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CompressionCodec{" +
+      "threshold=" + threshold +
+      ", compressed=" + compressed +
+      ", ratio=" + ratio() +
+      '}';
+  }
+}
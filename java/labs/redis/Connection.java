@@ -8,6 +8,11 @@ package labs.redis;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -19,6 +24,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * No, sync should be in Connection, because readAsync touches os.flush().
  * The bad think is we also need to synch in Client, because we use tail.
  * Can we do smthng else? Compare and swap?
+ * <p/>
+ * Read and write buffers are leased from a BufferPool while data is in flight and
+ * released when the connection is idle, so the streams synchronize on themselves.
  */
 public class Connection
 {
@@ -37,35 +45,89 @@ public class Connection
   public static final char LF = '\n';
   public static final char CR = '\r';
   private static final char ZERO = '0';
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(EMPTY_BYTES).asReadOnlyBuffer();
+
+  public static final int BUFFER_SIZE = 8192;
 
   final AtomicInteger pipelined = new AtomicInteger(0);
 
+  // socket is null for channels without a Socket adaptor (unix domain sockets)
   public final Socket socket;
+  private final SocketChannel channel;
   public boolean failed = false;
 
-  private final BufferedInputStream is;
-  private final OutputStream os;
+  // optional value compression, see CompressionCodec
+  volatile CompressionCodec codec = null;
+
+  private final ReplyInputStream is;
+  private final RequestOutputStream os;
 
   public Connection(Socket socket)
     throws IOException
+  {
+    this(socket, BufferPool.DEFAULT);
+  }
+
+  public Connection(Socket socket, BufferPool pool)
+    throws IOException
   {
     this.socket = socket;
-    is = new BufferedInputStream(socket.getInputStream());
-    os = new BufferedOutputStream(socket.getOutputStream());
+    this.channel = socket.getChannel();
+    if (channel != null)
+    {
+      is = new ReplyInputStream(channel, pool);
+      os = new RequestOutputStream(channel, pool);
+    }
+    else
+    {
+      is = new ReplyInputStream(Channels.newChannel(socket.getInputStream()), pool);
+      os = new RequestOutputStream(Channels.newChannel(socket.getOutputStream()), pool);
+    }
+  }
+
+  /**
+   * Connection over a connected, blocking channel, eg. from SocketFactory.newChannel(path).
+   */
+  public Connection(SocketChannel channel)
+    throws IOException
+  {
+    this(channel, BufferPool.DEFAULT);
+  }
+
+  public Connection(SocketChannel channel, BufferPool pool)
+    throws IOException
+  {
+    this.socket = null;
+    this.channel = channel;
+    is = new ReplyInputStream(channel, pool);
+    os = new RequestOutputStream(channel, pool);
   }
 
   public void close()
     throws IOException
   {
-    if (!socket.isClosed())
-      socket.close();
+    try
+    {
+      if (socket == null)
+        channel.close();
+      else if (!socket.isClosed())
+        socket.close();
+    }
+    finally
+    {
+      // after close, so blocked readers let go
+      is.dispose();
+      os.dispose();
+    }
   }
 
 
   public boolean isConnected()
   {
-    return socket != null
-      && socket.isBound()
+    if (socket == null)
+      return channel.isOpen() && channel.isConnected() && !failed;
+
+    return socket.isBound()
       && !socket.isClosed()
       && socket.isConnected()
       && !socket.isInputShutdown()
@@ -77,18 +139,36 @@ public class Connection
   ////////////////////////////////////////////// read
   public Reply receive()
     throws IOException
+  {
+    return receive(null);
+  }
+
+  /**
+   * Receive next reply, bulk payloads are turned into DecodedReplys by decoder
+   * if not null.
+   */
+  public Reply receive(Decoder decoder)
+    throws IOException
+  {
+    return receive(decoder, false);
+  }
+
+  /**
+   * Like receive(Decoder), multi bulk replies of plain bulks are read in compact form
+   * (see MultiBulkReply) if compact.
+   */
+  public Reply receive(Decoder decoder, boolean compact)
+    throws IOException
   {
     try
     {
-//synchronized (os)
-      {
-        os.flush();
-      }
+      os.flush();
 
-      //synchronized (is)
+      synchronized (is)
       {
-        Reply r = receiveReply(is);
-        pipelined.decrementAndGet();
+        Reply r = receiveReply(is, decoder, compact);
+        if (received() == 0)
+          is.releaseIfIdle();
         return r;
       }
     }
@@ -100,10 +180,30 @@ public class Connection
   }
 
 
-  private Reply receiveReply(InputStream is)
+  /**
+   * Counts a reply off pipelined, never below zero: pub/sub receives more
+   * replies than it sends commands.
+   */
+  private int received()
+  {
+    for (;;)
+    {
+      final int n = pipelined.get();
+      final int m = n > 0 ? n - 1 : 0;
+      if (pipelined.compareAndSet(n, m))
+        return m;
+    }
+  }
+
+  private Reply receiveReply(ReplyInputStream is, Decoder decoder, boolean compact)
+    throws IOException
+  {
+    return receiveReply(is, is.read(), decoder, compact);
+  }
+
+  private Reply receiveReply(ReplyInputStream is, int code, Decoder decoder, boolean compact)
     throws IOException
   {
-    int code = is.read();
     switch (code)
     {
       case StatusReply.MARKER:
@@ -118,8 +218,7 @@ public class Connection
         if (buf == PONG)
           return StatusReply.PONG;
 
-        // TODO: handle QUEUED
-        if (Arrays.equals(QUEUED, buf))
+        if (buf == QUEUED)
           return StatusReply.QUEUED;
 
         return new StatusReply(buf);
@@ -134,11 +233,19 @@ public class Connection
       }
       case BulkReply.MARKER:
       {
-        return new BulkReply(readBytes(is));
+        if (decoder != null)
+          return readDecoded(is, decoder);
+
+        final byte[] bytes = readBytes(is);
+        final CompressionCodec c = codec;
+        if (c != null && c.isEncoded(bytes))
+          return new CompressedBulkReply(bytes, c);
+
+        return new BulkReply(bytes);
       }
       case MultiBulkReply.MARKER:
       {
-        return new MultiBulkReply(readMultiBulk(is));
+        return readMultiBulk(is, decoder, compact);
       }
       default:
       {
@@ -147,80 +254,81 @@ public class Connection
     }
   }
 
-  private Reply[] readMultiBulk(InputStream is)
+  private MultiBulkReply readMultiBulk(ReplyInputStream is, Decoder decoder, boolean compact)
     throws IOException
   {
     int size = readInteger(is);
     if (size == -1)
-      return null;
+      return new MultiBulkReply(null);
+
+    if (compact && size > 0)
+      return readCompactMultiBulk(is, size, decoder);
 
     Reply[] values = new Reply[size];
     for (int i = 0; i < values.length; i++)
-      values[i] = receiveReply(is);
-    return values;
+      values[i] = receiveReply(is, decoder, compact);
+    return new MultiBulkReply(values);
   }
 
-  private static byte[] readStatus(InputStream is)
+  /**
+   * Reads all bulk payloads into one array, falls back to a Reply[] when an
+   * element isn't a bulk (nested multi bulks, integers etc). Elements are decoded
+   * with decoder when taken out of the compact form.
+   */
+  private MultiBulkReply readCompactMultiBulk(ReplyInputStream is, int size, Decoder decoder)
     throws IOException
   {
-    // DataInputStream.readLine
-    byte buf[] = new byte[128];
-    int room = buf.length;
-    int offset = 0;
-    int c;
+    final CompressionCodec c = codec;
+    final int[] index = new int[2 * size];
+    byte[] data = EMPTY_BYTES;
+    int used = 0;
 
-    loop:
-    while (true)
+    for (int i = 0; i < size; i++)
     {
-      switch (c = is.read())
+      final int code = is.read();
+      if (code != BulkReply.MARKER)
       {
-        case -1:
-        case '\n':
-          break loop;
-
-        case '\r':
-          int c2 = is.read();
-          if ((c2 != '\n') && (c2 != -1))
-          {
-            if (!(is instanceof PushbackInputStream))
-              is = new PushbackInputStream(is);
-
-            ((PushbackInputStream) is).unread(c2);
-          }
-          break loop;
+        final Reply[] values = new Reply[size];
+        final MultiBulkReply read = new MultiBulkReply(data, index, c, decoder);
+        for (int j = 0; j < i; j++)
+          values[j] = read.reply(j);
+
+        values[i] = receiveReply(is, code, decoder, true);
+        for (int j = i + 1; j < size; j++)
+          values[j] = receiveReply(is, decoder, true);
+        return new MultiBulkReply(values);
+      }
 
-        default:
-          if (--room < 0)
-          {
-            byte[] newBuffer = new byte[offset + 128];
-            room = buf.length - offset - 1;
-            System.arraycopy(newBuffer, 0, buf, 0, offset);
-            buf = newBuffer;
-          }
+      final int length = readInteger(is);
+      index[2 * i + 1] = length;
+      if (length == -1)
+        continue;
 
-          buf[offset++] = (byte) c;
-          break;
+      // size for the rest at the average length so far plus some slack (the first guess
+      // capped), growing at least by half so creeping lengths don't copy every time
+      if (used + length > data.length)
+      {
+        long rest = (long) (used + length) / (i + 1) * (size - i - 1);
+        rest += rest / 8;
+        if (used == 0)
+          rest = Math.min(rest, 8 * BUFFER_SIZE);
+        final long capacity = Math.max(used + length + rest, data.length + data.length / 2);
+        data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, capacity));
       }
-    }
 
-    if ((c == -1) && (offset == 0))
-    {
-      return null;
+      index[2 * i] = used;
+      readFully(is, data, used, length);
+      readCRLF(is);
+      used += length;
     }
 
-    // optimze 'OK\r\n'
-    if (offset == 2 && buf[0] == 'O' && buf[1] == 'K')
-      return OK;
-
-    // optimze 'PONG\r\n'
-    if (offset == 4 && buf[0] == 'P' && buf[1] == 'O' && buf[2] == 'N' && buf[3] == 'G')
-      return PONG;
-
-    //TODO: optimize 'QUEUED\r\n'
+    return new MultiBulkReply(data, index, c, decoder);
+  }
 
-    byte[] r = new byte[offset];
-    System.arraycopy(buf, 0, r, 0, offset);
-    return r;
+  private static byte[] readStatus(ReplyInputStream is)
+    throws IOException
+  {
+    return is.readLine();
   }
 
   private static int readInteger(InputStream is)
@@ -263,28 +371,177 @@ public class Connection
     return size * sign;
   }
 
+  /**
+   * Decodes a bulk payload in place if it's fully buffered (and can't be
+   * compressed), otherwise via a byte[]. The payload is always consumed, a
+   * failing decoder results in an ErrorReply.
+   */
+  private Reply readDecoded(ReplyInputStream is, Decoder decoder)
+    throws IOException
+  {
+    final int size = readInteger(is);
+    if (size == -1)
+      return new DecodedReply(null);
+
+    final CompressionCodec c = codec;
+    try
+    {
+      if (c == null && is.buffered() >= size)
+      {
+        try
+        {
+          return new DecodedReply(is.decode(decoder, size));
+        }
+        finally
+        {
+          readCRLF(is);
+        }
+      }
+
+      byte[] bytes = readBytes(is, size);
+      if (c != null && c.isEncoded(bytes))
+        bytes = c.decode(bytes);
+      return new DecodedReply(decoder.decode(ByteBuffer.wrap(bytes)));
+    }
+    catch (RuntimeException e)
+    {
+      return new ErrorReply(("ERR decoder failed: " + e).getBytes(UTF8));
+    }
+  }
+
   private static byte[] readBytes(InputStream is)
     throws IOException
   {
     int size = readInteger(is);
-    int read;
     if (size == -1)
       return null;
 
+    return readBytes(is, size);
+  }
+
+  private static byte[] readBytes(InputStream is, int size)
+    throws IOException
+  {
     byte[] bytes = new byte[size];
+    readFully(is, bytes, 0, size);
+    readCRLF(is);
+    return bytes;
+  }
+
+  private static void readFully(InputStream is, byte[] bytes, int offset, int length)
+    throws IOException
+  {
+    int read;
     int total = 0;
-    while (total < bytes.length && (read = is.read(bytes, total, bytes.length - total)) != -1)
+    while (total < length && (read = is.read(bytes, offset + total, length - total)) != -1)
       total += read;
 
-    if (total < bytes.length)
+    if (total < length)
       throw new IOException("Failed to read enough bytes: " + total);
+  }
 
+  private static void readCRLF(InputStream is)
+    throws IOException
+  {
     int cr = is.read();
     int lf = is.read();
     if (cr != CR || lf != LF)
       throw new IOException("Improper line ending: " + cr + ", " + lf);
+  }
 
-    return bytes;
+
+  ////////////////////////////////////////////// skip
+
+  /**
+   * Consumes one reply from the stream without materializing it. Returns the
+   * ErrorReply if the reply was (or, for multi bulk, contained) an error,
+   * otherwise null. Paired with sendBulk(), used by BulkLoader.
+   */
+  public ErrorReply skip()
+    throws IOException
+  {
+    try
+    {
+      synchronized (is)
+      {
+        final ErrorReply r = skipReply(is);
+        if (pipelined.get() <= 0)
+          is.releaseIfIdle();
+        return r;
+      }
+    }
+    catch (IOException e)
+    {
+      this.failed = true;
+      throw e;
+    }
+  }
+
+  private static ErrorReply skipReply(ReplyInputStream is)
+    throws IOException
+  {
+    int code = is.read();
+    switch (code)
+    {
+      case StatusReply.MARKER:
+      case IntegerReply.MARKER:
+      {
+        skipLine(is);
+        return null;
+      }
+      case ErrorReply.MARKER:
+      {
+        return new ErrorReply(readStatus(is));
+      }
+      case BulkReply.MARKER:
+      {
+        int size = readInteger(is);
+        if (size != -1)
+          skipFully(is, size + 2); // payload + CRLF
+        return null;
+      }
+      case MultiBulkReply.MARKER:
+      {
+        int size = readInteger(is);
+        ErrorReply error = null;
+        for (int i = 0; i < size; i++)
+        {
+          ErrorReply e = skipReply(is);
+          if (error == null)
+            error = e;
+        }
+        return error;
+      }
+      default:
+      {
+        throw new IOException("Unexpected character in stream: " + code);
+      }
+    }
+  }
+
+  private static void skipLine(InputStream is)
+    throws IOException
+  {
+    int c;
+    while ((c = is.read()) != LF)
+      if (c == -1)
+        throw new EOFException("Unexpected end of stream");
+  }
+
+  private static void skipFully(InputStream is, long n)
+    throws IOException
+  {
+    while (n > 0)
+    {
+      long skipped = is.skip(n);
+      if (skipped <= 0)
+      {
+        if (is.read() == -1)
+          throw new EOFException("Failed to skip enough bytes: " + n);
+        skipped = 1;
+      }
+      n -= skipped;
+    }
   }
 
 
@@ -297,7 +554,7 @@ public class Connection
     {
 //synchronized (os)
       {
-        write(os, objects);
+        write(os, codec, objects);
         pipelined.incrementAndGet();
       }
     }
@@ -308,14 +565,50 @@ public class Connection
     }
   }
 
-  private static void write(OutputStream os, Object... objects)
+  /**
+   * Writes a command without counting it as pipelined, replies are expected
+   * to be consumed with skip(). Used by BulkLoader.
+   */
+  public void sendBulk(Object[] objects)
+    throws IOException
+  {
+    try
+    {
+      write(os, codec, objects);
+    }
+    catch (IOException e)
+    {
+      failed = true;
+      throw e;
+    }
+  }
+
+  public void flush()
+    throws IOException
+  {
+    try
+    {
+      os.flush();
+    }
+    catch (IOException e)
+    {
+      failed = true;
+      throw e;
+    }
+  }
+
+  private static void write(OutputStream os, CompressionCodec codec, Object... objects)
     throws IOException
   {
     os.write(ARGS_PREFIX);
     os.write(numToBytes(objects.length, true));
 
-    for (Object object : objects)
+    // only values, keys and anything the server interprets are sent as-is
+    final int[] values = codec != null && objects.length > 0 ? CompressionCodec.values(objects[0]) : null;
+
+    for (int i = 0; i < objects.length; i++)
     {
+      final Object object = objects[i];
       os.write(BYTES_PREFIX);
 
       byte[] b;
@@ -328,6 +621,9 @@ public class Connection
       else
         b = object.toString().getBytes(UTF8);
 
+      if (values != null && CompressionCodec.isValue(values, i))
+        b = codec.encode(b);
+
       os.write(numToBytes(b.length, true));
       os.write(b);
       os.write(CRLF);
@@ -397,12 +693,304 @@ public class Connection
     return bytes;
   }
 
+  /**
+   * Buffered reads from a channel into a leased buffer. Gives decoders access
+   * to the buffer. Callers synchronize on the stream.
+   */
+  private static final class ReplyInputStream extends InputStream
+  {
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    private ByteBuffer buf; // in read mode, null when released
+    private boolean closed = false;
+
+    ReplyInputStream(ReadableByteChannel channel, BufferPool pool)
+    {
+      this.channel = channel;
+      this.pool = pool;
+    }
+
+    private int fill()
+      throws IOException
+    {
+      if (closed)
+        throw new IOException("Connection closed");
+      if (buf == null)
+        buf = pool.lease(BUFFER_SIZE);
+
+      buf.clear();
+      int n;
+      do
+        n = channel.read(buf);
+      while (n == 0);
+      buf.flip();
+      return n;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      if ((buf == null || !buf.hasRemaining()) && fill() == -1)
+        return -1;
+
+      return buf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if (len == 0)
+        return 0;
+
+      if (buf == null || !buf.hasRemaining())
+      {
+        // large reads go straight to the caller's array
+        if (len >= BUFFER_SIZE)
+        {
+          if (closed)
+            throw new IOException("Connection closed");
+          return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        if (fill() == -1)
+          return -1;
+      }
+
+      final int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n)
+      throws IOException
+    {
+      if (n <= 0 || ((buf == null || !buf.hasRemaining()) && fill() == -1))
+        return 0;
+
+      final int skipped = (int) Math.min(n, buf.remaining());
+      buf.position(buf.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+      return buf == null ? 0 : buf.remaining();
+    }
+
+    int buffered()
+    {
+      return available();
+    }
+
+    /**
+     * Reads a CRLF terminated line, without copying if it's already buffered.
+     * Returns the shared OK, PONG and QUEUED arrays for those replies.
+     */
+    byte[] readLine()
+      throws IOException
+    {
+      if (buf != null)
+      {
+        final int start = buf.position();
+        for (int i = start; i < buf.limit(); i++)
+        {
+          if (buf.get(i) == LF)
+          {
+            buf.position(i + 1);
+            return line(buf, start, i - start);
+          }
+        }
+      }
+
+      // slow path, line spans reads
+      final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+      int c;
+      while ((c = read()) != -1 && c != LF)
+        line.write(c);
+
+      if (c == -1 && line.size() == 0)
+        return null;
+
+      final ByteBuffer b = ByteBuffer.wrap(line.toByteArray());
+      return line(b, 0, b.limit());
+    }
+
+    // length includes the CR, if any
+    private static byte[] line(ByteBuffer b, int start, int length)
+    {
+      if (length > 0 && b.get(start + length - 1) == CR)
+        length--;
+
+      if (length == 2 && b.get(start) == 'O' && b.get(start + 1) == 'K')
+        return OK;
+
+      if (length == 4 && b.get(start) == 'P' && b.get(start + 1) == 'O'
+        && b.get(start + 2) == 'N' && b.get(start + 3) == 'G')
+        return PONG;
+
+      if (length == 6 && b.get(start) == 'Q' && b.get(start + 1) == 'U' && b.get(start + 2) == 'E'
+        && b.get(start + 3) == 'U' && b.get(start + 4) == 'E' && b.get(start + 5) == 'D')
+        return QUEUED;
+
+      final byte[] r = new byte[length];
+      for (int i = 0; i < length; i++)
+        r[i] = b.get(start + i);
+      return r;
+    }
+
+    /**
+     * Decodes the next n (buffered) bytes in place and skips them.
+     */
+    Object decode(Decoder decoder, int n)
+    {
+      if (n == 0)
+        return decoder.decode(EMPTY_BUFFER.duplicate());
+
+      final int start = buf.position();
+      final int limit = buf.limit();
+      buf.limit(start + n);
+      try
+      {
+        return decoder.decode(buf);
+      }
+      finally
+      {
+        buf.limit(limit);
+        buf.position(start + n);
+      }
+    }
+
+    /**
+     * Returns the buffer to the pool if everything in it has been consumed.
+     */
+    void releaseIfIdle()
+    {
+      if (buf != null && !buf.hasRemaining())
+      {
+        // drop it first, so a failing release doesn't leave it behind
+        final ByteBuffer b = buf;
+        buf = null;
+        pool.release(b);
+      }
+    }
+
+    synchronized void dispose()
+    {
+      closed = true;
+      if (buf != null)
+      {
+        final ByteBuffer b = buf;
+        buf = null;
+        pool.release(b);
+      }
+    }
+  }
+
+  /**
+   * Buffered writes to a channel from a leased buffer, released on flush.
+   */
+  private static final class RequestOutputStream extends OutputStream
+  {
+    private final WritableByteChannel channel;
+    private final BufferPool pool;
+    private ByteBuffer buf; // in write mode, null when released
+    private boolean closed = false;
+
+    RequestOutputStream(WritableByteChannel channel, BufferPool pool)
+    {
+      this.channel = channel;
+      this.pool = pool;
+    }
+
+    private void ensureBuffer()
+      throws IOException
+    {
+      if (closed)
+        throw new IOException("Connection closed");
+      if (buf == null)
+        buf = pool.lease(BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void write(int b)
+      throws IOException
+    {
+      ensureBuffer();
+      if (!buf.hasRemaining())
+        drain();
+      buf.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+      throws IOException
+    {
+      ensureBuffer();
+      if (len >= buf.capacity())
+      {
+        drain();
+        writeFully(ByteBuffer.wrap(b, off, len));
+        return;
+      }
+
+      if (buf.remaining() < len)
+        drain();
+      buf.put(b, off, len);
+    }
+
+    private void drain()
+      throws IOException
+    {
+      if (buf != null && buf.position() > 0)
+      {
+        buf.flip();
+        writeFully(buf);
+        buf.clear();
+      }
+    }
+
+    private void writeFully(ByteBuffer b)
+      throws IOException
+    {
+      while (b.hasRemaining())
+        channel.write(b);
+    }
+
+    @Override
+    public synchronized void flush()
+      throws IOException
+    {
+      if (buf == null)
+        return;
+
+      drain();
+      final ByteBuffer b = buf;
+      buf = null;
+      pool.release(b);
+    }
+
+    synchronized void dispose()
+    {
+      closed = true;
+      if (buf != null)
+      {
+        final ByteBuffer b = buf;
+        buf = null;
+        pool.release(b);
+      }
+    }
+  }
+
   @Override
   public String toString()
   {
     return "Connection{" +
       "pipelined=" + pipelined +
-      ", socket=" + socket +
+      ", socket=" + (socket != null ? socket : channel) +
       '}';
   }
 }
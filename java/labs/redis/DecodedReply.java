@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+package labs.redis;
+
+/**
+ * A bulk reply already turned into its final value by a Decoder.
+ */
+public class DecodedReply extends Reply
+{
+  public final Object value;
+
+  public DecodedReply(Object value)
+  {
+    this.value = value;
+  }
+
+  @Override
+  public Object getValue()
+  {
+    return value;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "DecodedReply{" +
+      "value=" + value +
+      '}';
+  }
+}
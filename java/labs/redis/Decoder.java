@@ -0,0 +1,19 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+package labs.redis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns a bulk payload into a value while it is still in the connection's read
+ * buffer, see Decoders for the standard ones.
+ * <p/>
+ * The payload is between bytes.position() and bytes.limit(). The buffer is reused
+ * for the next reply, so it must not be retained or modified.
+ */
+public interface Decoder
+{
+  Object decode(ByteBuffer bytes);
+}
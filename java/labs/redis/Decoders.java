@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+package labs.redis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Standard decoders. Numbers are parsed straight from the buffer, Strings are
+ * created from it without an intermediate byte[].
+ */
+public class Decoders
+{
+  public static final Decoder BYTES = new Decoder()
+  {
+    public Object decode(ByteBuffer bytes)
+    {
+      final byte[] b = new byte[bytes.remaining()];
+      bytes.get(b);
+      return b;
+    }
+  };
+
+  public static final Decoder UTF8 = new Decoder()
+  {
+    public Object decode(ByteBuffer bytes)
+    {
+      return string(bytes, Connection.UTF8);
+    }
+  };
+
+  public static final Decoder LONG = new Decoder()
+  {
+    public Object decode(ByteBuffer bytes)
+    {
+      return parseLong(bytes);
+    }
+  };
+
+  public static final Decoder DOUBLE = new Decoder()
+  {
+    public Object decode(ByteBuffer bytes)
+    {
+      return Double.parseDouble(string(bytes, Connection.US_ASCII));
+    }
+  };
+
+  private static final int SCRATCH_SIZE = 1024;
+  private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>()
+  {
+    @Override
+    protected byte[] initialValue()
+    {
+      return new byte[SCRATCH_SIZE];
+    }
+  };
+
+  public static String string(ByteBuffer bytes, Charset charset)
+  {
+    if (bytes.hasArray())
+      return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), charset);
+
+    // direct buffer, copy small values through a per-thread array
+    final int n = bytes.remaining();
+    final byte[] b = n <= SCRATCH_SIZE ? scratch.get() : new byte[n];
+    final int position = bytes.position();
+    bytes.get(b, 0, n);
+    bytes.position(position);
+    return new String(b, 0, n, charset);
+  }
+
+  public static long parseLong(ByteBuffer bytes)
+  {
+    int i = bytes.position();
+    final int end = bytes.limit();
+    if (i == end)
+      throw new NumberFormatException("Empty value");
+
+    final boolean negative = bytes.get(i) == '-';
+    if (negative && ++i == end)
+      throw new NumberFormatException("Invalid integer: -");
+
+    long n = 0;
+    for (; i < end; i++)
+    {
+      final int digit = bytes.get(i) - '0';
+      if (digit < 0 || digit > 9 || n > (Long.MAX_VALUE - digit) / 10)
+        throw new NumberFormatException("Invalid integer: " + string(bytes, Connection.US_ASCII));
+      n = n * 10 + digit;
+    }
+
+    return negative ? -n : n;
+  }
+}
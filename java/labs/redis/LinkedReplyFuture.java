@@ -6,18 +6,41 @@
 package labs.redis;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import clojure.lang.IDeref;
 
 public class LinkedReplyFuture implements IDeref
 {
   private final Connection connection;
+  private final Decoder decoder;
+  private final boolean compact;
   LinkedReplyFuture tail;
-  protected Reply value;
+  protected volatile Reply value;
+  private volatile Runnable onRealized;
+
+  private static final AtomicReferenceFieldUpdater<LinkedReplyFuture, Runnable> ON_REALIZED =
+    AtomicReferenceFieldUpdater.newUpdater(LinkedReplyFuture.class, Runnable.class, "onRealized");
 
   public LinkedReplyFuture(Connection connection, LinkedReplyFuture tail)
+  {
+    this(connection, tail, null);
+  }
+
+  public LinkedReplyFuture(Connection connection, LinkedReplyFuture tail, Decoder decoder)
+  {
+    this(connection, tail, decoder, false);
+  }
+
+  /**
+   * Future of a reply read with decoder, and in compact form if compact (see
+   * Connection.receive(Decoder, boolean)).
+   */
+  public LinkedReplyFuture(Connection connection, LinkedReplyFuture tail, Decoder decoder, boolean compact)
   {
     this.connection = connection;
     this.tail = tail;
+    this.decoder = decoder;
+    this.compact = compact;
   }
 
   // QUEUED values will result in Futures keeping it's tail
@@ -27,10 +50,42 @@ public class LinkedReplyFuture implements IDeref
   {
     if (value != null) return (value != StatusReply.QUEUED); // done
 
-    value = this.connection.receive();
+    try
+    {
+      value = this.connection.receive(decoder, compact);
+    }
+    finally
+    {
+      // also when receive failed, the future won't complete after that
+      if (onRealized != null)
+      {
+        final Runnable r = ON_REALIZED.getAndSet(this, null);
+        if (r != null) r.run();
+      }
+    }
+
     return (value != StatusReply.QUEUED);
   }
 
+  /**
+   * True until the reply has been received, or the connection failed.
+   */
+  public boolean isPending()
+  {
+    return value == null && !connection.failed;
+  }
+
+  /**
+   * Runs r when the reply has been received or receiving it failed (in the receiving
+   * thread), or now if either already happened. Doesn't block on a reader in get().
+   */
+  public void onRealized(Runnable r)
+  {
+    onRealized = r;
+    if (!isPending() && ON_REALIZED.compareAndSet(this, r, null))
+      r.run();
+  }
+
   protected synchronized boolean ensure()
     throws IOException
   {
@@ -0,0 +1,368 @@
+/**
+ * Copyright 2012 Preemptive Labs / Andreas Bielk (http://www.preemptive.se)
+ *
+ *************************************************************************************/
+
+package labs.redis;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process stand-in for redis-server, for benchmarks and for trying the client
+ * without a Redis around. Speaks just enough of the protocol for the commands
+ * below, keeps data in memory and serves one thread per connection. Listens on
+ * localhost or, given a path, on a unix domain socket (Java 16 or later).
+ * <p/>
+ * PING ECHO SET GET MGET DEL INCR HSET HGET HMGET FLUSHDB QUIT
+ */
+public class LoopbackServer implements Runnable
+{
+  private static final byte[] PONG = "+PONG\r\n".getBytes(Connection.US_ASCII);
+  private static final byte[] OK = "+OK\r\n".getBytes(Connection.US_ASCII);
+  private static final byte[] NIL = "$-1\r\n".getBytes(Connection.US_ASCII);
+
+  // one of server (tcp) or channel (unix domain socket at path)
+  private final ServerSocket server;
+  private final ServerSocketChannel channel;
+  private final String path;
+  private final Map<String, byte[]> strings = new ConcurrentHashMap<String, byte[]>();
+  private final Map<String, Map<String, byte[]>> hashes = new ConcurrentHashMap<String, Map<String, byte[]>>();
+
+  public LoopbackServer(int port)
+    throws IOException
+  {
+    server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.bind(new InetSocketAddress("localhost", port));
+    channel = null;
+    path = null;
+  }
+
+  /**
+   * Listens on a unix domain socket, path must not exist.
+   */
+  public LoopbackServer(String path)
+    throws IOException
+  {
+    try
+    {
+      channel = (ServerSocketChannel) ServerSocketChannel.class
+        .getMethod("open", ProtocolFamily.class)
+        .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+    }
+    catch (Exception e)
+    {
+      throw new IOException("Unix domain sockets need Java 16 or later", e);
+    }
+    channel.bind(SocketFactory.unixAddress(path));
+    server = null;
+    this.path = path;
+  }
+
+  public int getPort()
+  {
+    return server != null ? server.getLocalPort() : -1;
+  }
+
+  public String getPath()
+  {
+    return path;
+  }
+
+  private String address()
+  {
+    return server != null ? Integer.toString(getPort()) : path;
+  }
+
+  /**
+   * Starts accepting connections on a daemon thread.
+   */
+  public LoopbackServer start()
+  {
+    final Thread t = new Thread(this, "labs.redis.LoopbackServer:" + address());
+    t.setDaemon(true);
+    t.start();
+    return this;
+  }
+
+  public void close()
+    throws IOException
+  {
+    if (server != null)
+      server.close();
+    else
+    {
+      channel.close();
+      new File(path).delete();
+    }
+  }
+
+  public void run()
+  {
+    while (server != null ? !server.isClosed() : channel.isOpen())
+    {
+      try
+      {
+        final Closeable connection;
+        final InputStream in;
+        final OutputStream out;
+        final String name;
+        if (server != null)
+        {
+          final Socket socket = server.accept();
+          socket.setTcpNoDelay(true);
+          connection = socket;
+          in = socket.getInputStream();
+          out = socket.getOutputStream();
+          name = Integer.toString(socket.getPort());
+        }
+        else
+        {
+          final SocketChannel c = channel.accept();
+          connection = c;
+          in = Channels.newInputStream(c);
+          out = Channels.newOutputStream(c);
+          name = path + "#" + c.hashCode();
+        }
+
+        final Thread t = new Thread(new Runnable()
+        {
+          public void run()
+          {
+            serve(connection, in, out);
+          }
+        }, "labs.redis.LoopbackServer:" + name);
+        t.setDaemon(true);
+        t.start();
+      }
+      catch (IOException e)
+      {
+        // closed
+      }
+    }
+  }
+
+  private void serve(Closeable connection, InputStream in, OutputStream out)
+  {
+    try
+    {
+      final OutputStream os = new BufferedOutputStream(out);
+      // flush before blocking for more input, also in the middle of a command: the
+      // client may wait for replies before sending the rest of it
+      final InputStream is = new BufferedInputStream(new FilterInputStream(in)
+      {
+        @Override
+        public int read(byte[] b, int off, int len)
+          throws IOException
+        {
+          if (in.available() == 0)
+            os.flush();
+          return in.read(b, off, len);
+        }
+      });
+      try
+      {
+        byte[][] command;
+        while ((command = readCommand(is)) != null)
+        {
+          if (!execute(command, os))
+            break;
+        }
+        os.flush();
+      }
+      finally
+      {
+        connection.close();
+      }
+    }
+    catch (IOException e)
+    {
+      // client went away
+    }
+  }
+
+  private boolean execute(byte[][] c, OutputStream os)
+    throws IOException
+  {
+    final String name = new String(c[0], Connection.US_ASCII).toUpperCase();
+
+    if ("PING".equals(name))
+      os.write(PONG);
+    else if ("ECHO".equals(name) && c.length == 2)
+      writeBulk(os, c[1]);
+    else if ("SET".equals(name) && c.length >= 3)
+    {
+      strings.put(key(c[1]), c[2]);
+      os.write(OK);
+    }
+    else if ("GET".equals(name) && c.length == 2)
+      writeBulk(os, strings.get(key(c[1])));
+    else if ("MGET".equals(name) && c.length >= 2)
+    {
+      writeHeader(os, '*', c.length - 1);
+      for (int i = 1; i < c.length; i++)
+        writeBulk(os, strings.get(key(c[i])));
+    }
+    else if ("DEL".equals(name) && c.length >= 2)
+    {
+      long n = 0;
+      for (int i = 1; i < c.length; i++)
+        if (strings.remove(key(c[i])) != null | hashes.remove(key(c[i])) != null)
+          n++;
+      writeHeader(os, ':', n);
+    }
+    else if ("INCR".equals(name) && c.length == 2)
+    {
+      synchronized (strings)
+      {
+        final byte[] old = strings.get(key(c[1]));
+        final long n;
+        try
+        {
+          n = (old == null ? 0 : Long.parseLong(new String(old, Connection.US_ASCII))) + 1;
+        }
+        catch (NumberFormatException e)
+        {
+          writeError(os, "ERR value is not an integer or out of range");
+          return true;
+        }
+        strings.put(key(c[1]), Long.toString(n).getBytes(Connection.US_ASCII));
+        writeHeader(os, ':', n);
+      }
+    }
+    else if ("HSET".equals(name) && c.length == 4)
+    {
+      synchronized (hashes)
+      {
+        Map<String, byte[]> h = hashes.get(key(c[1]));
+        if (h == null)
+          hashes.put(key(c[1]), h = new ConcurrentHashMap<String, byte[]>());
+        writeHeader(os, ':', h.put(key(c[2]), c[3]) == null ? 1 : 0);
+      }
+    }
+    else if ("HGET".equals(name) && c.length == 3)
+    {
+      final Map<String, byte[]> h = hashes.get(key(c[1]));
+      writeBulk(os, h == null ? null : h.get(key(c[2])));
+    }
+    else if ("HMGET".equals(name) && c.length >= 3)
+    {
+      final Map<String, byte[]> h = hashes.get(key(c[1]));
+      writeHeader(os, '*', c.length - 2);
+      for (int i = 2; i < c.length; i++)
+        writeBulk(os, h == null ? null : h.get(key(c[i])));
+    }
+    else if ("FLUSHDB".equals(name) || "FLUSHALL".equals(name))
+    {
+      strings.clear();
+      hashes.clear();
+      os.write(OK);
+    }
+    else if ("QUIT".equals(name))
+    {
+      os.write(OK);
+      return false;
+    }
+    else
+      writeError(os, "ERR unknown command '" + name + "'");
+
+    return true;
+  }
+
+  private static String key(byte[] b)
+  {
+    return new String(b, Connection.UTF8);
+  }
+
+  private static void writeHeader(OutputStream os, char marker, long n)
+    throws IOException
+  {
+    os.write(marker);
+    os.write(Long.toString(n).getBytes(Connection.US_ASCII));
+    os.write(Connection.CRLF);
+  }
+
+  private static void writeBulk(OutputStream os, byte[] b)
+    throws IOException
+  {
+    if (b == null)
+    {
+      os.write(NIL);
+      return;
+    }
+
+    writeHeader(os, '$', b.length);
+    os.write(b);
+    os.write(Connection.CRLF);
+  }
+
+  private static void writeError(OutputStream os, String error)
+    throws IOException
+  {
+    os.write('-');
+    os.write(error.getBytes(Connection.UTF8));
+    os.write(Connection.CRLF);
+  }
+
+  private static byte[][] readCommand(InputStream is)
+    throws IOException
+  {
+    final int marker = is.read();
+    if (marker == -1)
+      return null;
+    if (marker != MultiBulkReply.MARKER)
+      throw new IOException("Expected multi bulk command, got " + marker);
+
+    final byte[][] command = new byte[(int) readLong(is)][];
+    for (int i = 0; i < command.length; i++)
+    {
+      if (is.read() != BulkReply.MARKER)
+        throw new IOException("Expected bulk argument");
+
+      final byte[] b = new byte[(int) readLong(is)];
+      int total = 0, read;
+      while (total < b.length && (read = is.read(b, total, b.length - total)) != -1)
+        total += read;
+      if (total < b.length || is.read() != Connection.CR || is.read() != Connection.LF)
+        throw new EOFException("Truncated argument");
+      command[i] = b;
+    }
+    return command;
+  }
+
+  private static long readLong(InputStream is)
+    throws IOException
+  {
+    long n = 0;
+    int c;
+    while ((c = is.read()) != Connection.CR)
+    {
+      if (c < '0' || c > '9')
+        throw new IOException("Invalid character in integer: " + c);
+      n = n * 10 + (c - '0');
+    }
+    if (is.read() != Connection.LF)
+      throw new IOException("Improper line ending");
+    return n;
+  }
+
+  public static void main(String[] args)
+    throws IOException
+  {
+    final LoopbackServer s = args.length > 0 && !args[0].matches("\\d+")
+      ? new LoopbackServer(args[0])
+      : new LoopbackServer(args.length > 0 ? Integer.parseInt(args[0]) : 6379);
+    System.out.println("LoopbackServer listening on " + s.address());
+    s.run();
+  }
+}
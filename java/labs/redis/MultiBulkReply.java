@@ -4,27 +4,166 @@
  *************************************************************************************/
 package labs.redis;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * When read in compact mode (Client.pipelineCompact) a multi bulk reply where all
+ * elements are bulks is kept in compact form, all payloads in one byte[] plus an
+ * index of offsets and lengths, and values is null. size(), bytes(i) and strings()
+ * read the compact form directly, getValue() copies the elements out into
+ * BulkReplys (or DecodedReplys if read with a decoder) on first use.
+ */
 public class MultiBulkReply extends Reply
 {
   public static final char MARKER = '*';
   public final Reply[] values;
 
+  // compact form, and its elements once copied out
+  private final byte[] data;
+  private final int[] index; // offset, length (-1 for nil) per element
+  private final CompressionCodec codec;
+  private final Decoder decoder;
+  private volatile Reply[] views;
+
   public MultiBulkReply(Reply[] values)
   {
     this.values = values;
+    this.data = null;
+    this.index = null;
+    this.codec = null;
+    this.decoder = null;
+  }
+
+  public MultiBulkReply(byte[] data, int[] index, CompressionCodec codec, Decoder decoder)
+  {
+    this.values = null;
+    this.data = data;
+    this.index = index;
+    this.codec = codec;
+    this.decoder = decoder;
+  }
+
+  public boolean isCompact()
+  {
+    return data != null;
+  }
+
+  /**
+   * Number of elements, -1 for a nil multi bulk.
+   */
+  public int size()
+  {
+    if (data != null)
+      return index.length / 2;
+
+    return values == null ? -1 : values.length;
   }
 
   @Override
   public Reply[] getValue()
   {
-    return values;
+    if (data == null)
+      return values;
+
+    final Reply[] v = views;
+    return v != null ? v : views();
+  }
+
+  private synchronized Reply[] views()
+  {
+    if (views == null)
+    {
+      final Reply[] v = new Reply[index.length / 2];
+      for (int i = 0; i < v.length; i++)
+      {
+        v[i] = reply(i);
+      }
+      views = v;
+    }
+
+    return views;
+  }
+
+  /**
+   * Element i of the compact form as a reply, compressed values are inflated lazily
+   * unless there's a decoder. A failing decoder results in an ErrorReply.
+   */
+  Reply reply(int i)
+  {
+    final int offset = index[2 * i];
+    final int length = index[2 * i + 1];
+    if (decoder != null)
+    {
+      if (length == -1)
+        return new DecodedReply(null);
+
+      try
+      {
+        if (codec != null && codec.isEncoded(data, offset, length))
+          return new DecodedReply(decoder.decode(ByteBuffer.wrap(bytes(i))));
+        return new DecodedReply(decoder.decode(ByteBuffer.wrap(data, offset, length)));
+      }
+      catch (RuntimeException e)
+      {
+        return new ErrorReply(("ERR decoder failed: " + e).getBytes(Connection.UTF8));
+      }
+    }
+
+    if (length == -1)
+      return new BulkReply(null);
+
+    final byte[] b = Arrays.copyOfRange(data, offset, offset + length);
+    return codec != null && codec.isEncoded(b) ? new CompressedBulkReply(b, codec) : new BulkReply(b);
+  }
+
+  /**
+   * Payload of element i, like ((BulkReply) getValue()[i]).getValue() without a decoder.
+   */
+  public byte[] bytes(int i)
+  {
+    if (data == null)
+      return (byte[]) values[i].getValue();
+
+    final int offset = index[2 * i];
+    final int length = index[2 * i + 1];
+    if (length == -1)
+      return null;
+
+    final byte[] b = Arrays.copyOfRange(data, offset, offset + length);
+    return codec != null && codec.isEncoded(data, offset, length) ? codec.decode(b) : b;
+  }
+
+  /**
+   * All elements as Strings (platform charset, like ->str), without creating
+   * any intermediate replies or byte[]s in compact form.
+   */
+  public String[] strings()
+  {
+    if (data == null)
+      throw new IllegalStateException("Not a compact multi bulk reply");
+
+    final String[] s = new String[index.length / 2];
+    for (int i = 0; i < s.length; i++)
+    {
+      final int offset = index[2 * i];
+      final int length = index[2 * i + 1];
+      if (length == -1)
+        continue;
+
+      if (codec != null && codec.isEncoded(data, offset, length))
+        s[i] = new String(bytes(i));
+      else
+        s[i] = new String(data, offset, length);
+    }
+    return s;
   }
 
   @Override
   public String toString()
   {
     return "MultiBulkReply{" +
-	"byteArrays=" + (values != null ? values.length : -1 ) +
+	"byteArrays=" + size() +
       '}';
   }
 }
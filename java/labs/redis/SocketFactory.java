@@ -5,8 +5,11 @@
 package labs.redis;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 
 public class SocketFactory
 {
@@ -21,7 +24,8 @@ public class SocketFactory
   public static Socket newSocket(String host, int port, int timeout)
     throws IOException
   {
-    final Socket socket = new Socket();
+    // backed by a channel, so Connection can read into pooled direct buffers
+    final Socket socket = SocketChannel.open().socket();
 
     socket.setReuseAddress(true);
     socket.setKeepAlive(true);  //Will monitor the TCP connection is valid
@@ -33,4 +37,37 @@ public class SocketFactory
 
     return socket;
   }
+
+  /**
+   * Connects to a unix domain socket, eg. /var/run/redis/redis.sock. Needs Java 16 or
+   * later at runtime, looked up reflectively so the library still builds on older JDKs.
+   */
+  public static SocketChannel newChannel(String path)
+    throws IOException
+  {
+    return SocketChannel.open(unixAddress(path));
+  }
+
+  static SocketAddress unixAddress(String path)
+    throws IOException
+  {
+    try
+    {
+      return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+        .getMethod("of", String.class)
+        .invoke(null, path);
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new IOException("Unix domain sockets need Java 16 or later");
+    }
+    catch (InvocationTargetException e)
+    {
+      throw new IOException("Invalid unix socket path " + path, e.getCause());
+    }
+    catch (Exception e)
+    {
+      throw new IOException("Unix domain sockets not available", e);
+    }
+  }
 }
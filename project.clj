@@ -5,4 +5,5 @@
   :dev-dependencies [[clojure-source "1.3.0"]
                      [criterium "0.2.0"]]
   :java-source-paths ["java"]
+  :aot [labs.redis.core]
   :main labs.redis.core)
@@ -0,0 +1,278 @@
+;; Generated from commands.json by (spit-cmds "src/labs/redis/commands.clj"), do not edit.
+(in-ns (quote labs.redis.core))
+
+(clojure.core/let [cmd (.getBytes "APPEND")] (clojure.core/defn append "APPEND key value\n  Append a value to a key\n  Since Redis version 1.3.3" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "AUTH")] (clojure.core/defn auth "AUTH password\n  Authenticate to the server\n  Since Redis version 0.08" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "BGREWRITEAOF")] (clojure.core/defn bgrewriteaof "BGREWRITEAOF \n  Asynchronously rewrite the append-only file\n  Since Redis version 1.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "BGSAVE")] (clojure.core/defn bgsave "BGSAVE \n  Asynchronously save the dataset to disk\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "BLPOP")] (clojure.core/defn blpop "BLPOP key [key ..] timeout\n  Remove and get the first element in a list, or block until one is available\n  Since Redis version 1.3.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "BRPOP")] (clojure.core/defn brpop "BRPOP key [key ..] timeout\n  Remove and get the last element in a list, or block until one is available\n  Since Redis version 1.3.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "BRPOPLPUSH")] (clojure.core/defn brpoplpush "BRPOPLPUSH source destination timeout\n  Pop a value from a list, push it to another list and return it; or block until one is available\n  Since Redis version 2.1.7" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "CONFIG")] (clojure.core/defn config-get "CONFIG GET parameter\n  Get the value of a configuration parameter\n  Since Redis version 2.0" [db & args] (labs.redis.core/cmd* db cmd ["GET"] args)))
+
+(clojure.core/let [cmd (.getBytes "CONFIG")] (clojure.core/defn config-resetstat "CONFIG RESETSTAT \n  Reset the stats returned by INFO\n  Since Redis version 2.0" [db] (labs.redis.core/cmd* db cmd ["RESETSTAT"])))
+
+(clojure.core/let [cmd (.getBytes "CONFIG")] (clojure.core/defn config-set "CONFIG SET parameter value\n  Set a configuration parameter to the given value\n  Since Redis version 2.0" [db & args] (labs.redis.core/cmd* db cmd ["SET"] args)))
+
+(clojure.core/let [cmd (.getBytes "DBSIZE")] (clojure.core/defn dbsize "DBSIZE \n  Return the number of keys in the selected database\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "DEBUG")] (clojure.core/defn debug-object "DEBUG OBJECT key\n  Get debugging information about a key\n  Since Redis version 0.101" [db & args] (labs.redis.core/cmd* db cmd ["OBJECT"] args)))
+
+(clojure.core/let [cmd (.getBytes "DEBUG")] (clojure.core/defn debug-segfault "DEBUG SEGFAULT \n  Make the server crash\n  Since Redis version 0.101" [db] (labs.redis.core/cmd* db cmd ["SEGFAULT"])))
+
+(clojure.core/let [cmd (.getBytes "DECR")] (clojure.core/defn decr "DECR key\n  Decrement the integer value of a key by one\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "DECRBY")] (clojure.core/defn decrby "DECRBY key decrement\n  Decrement the integer value of a key by the given number\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "DEL")] (clojure.core/defn del "DEL key [key ..]\n  Delete a key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "DISCARD")] (clojure.core/defn discard "DISCARD \n  Discard all commands issued after MULTI\n  Since Redis version 1.3.3" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "ECHO")] (clojure.core/defn echo "ECHO message\n  Echo the given string\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "EVAL")] (clojure.core/defn eval "EVAL script numkeys key [key ..] arg [arg ..]\n  Execute a Lua script server side\n  Since Redis version 2.6.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "EXEC")] (clojure.core/defn exec "EXEC \n  Execute all commands issued after MULTI\n  Since Redis version 1.1.95" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "EXISTS")] (clojure.core/defn exists "EXISTS key\n  Determine if a key exists\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "EXPIRE")] (clojure.core/defn expire "EXPIRE key seconds\n  Set a key's time to live in seconds\n  Since Redis version 0.09" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "EXPIREAT")] (clojure.core/defn expireat "EXPIREAT key timestamp\n  Set the expiration for a key as a UNIX timestamp\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "FLUSHALL")] (clojure.core/defn flushall "FLUSHALL \n  Remove all keys from all databases\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "FLUSHDB")] (clojure.core/defn flushdb "FLUSHDB \n  Remove all keys from the current database\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "GET")] (clojure.core/defn get "GET key\n  Get the value of a key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "GETBIT")] (clojure.core/defn getbit "GETBIT key offset\n  Returns the bit value at offset in the string value stored at key\n  Since Redis version 2.1.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "GETRANGE")] (clojure.core/defn getrange "GETRANGE key start end\n  Get a substring of the string stored at a key\n  Since Redis version 1.3.4" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "GETSET")] (clojure.core/defn getset "GETSET key value\n  Set the string value of a key and return its old value\n  Since Redis version 0.091" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HDEL")] (clojure.core/defn hdel "HDEL key field [field ..]\n  Delete one or more hash fields\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HEXISTS")] (clojure.core/defn hexists "HEXISTS key field\n  Determine if a hash field exists\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HGET")] (clojure.core/defn hget "HGET key field\n  Get the value of a hash field\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HGETALL")] (clojure.core/defn hgetall "HGETALL key\n  Get all the fields and values in a hash\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HINCRBY")] (clojure.core/defn hincrby "HINCRBY key field increment\n  Increment the integer value of a hash field by the given number\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HKEYS")] (clojure.core/defn hkeys "HKEYS key\n  Get all the fields in a hash\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HLEN")] (clojure.core/defn hlen "HLEN key\n  Get the number of fields in a hash\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HMGET")] (clojure.core/defn hmget "HMGET key field [field ..]\n  Get the values of all the given hash fields\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HMSET")] (clojure.core/defn hmset "HMSET key [\"field\" \"value\"] [[\"field\" \"value\"] ..]\n  Set multiple hash fields to multiple values\n  Since Redis version 1.3.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HSET")] (clojure.core/defn hset "HSET key field value\n  Set the string value of a hash field\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HSETNX")] (clojure.core/defn hsetnx "HSETNX key field value\n  Set the value of a hash field, only if the field does not exist\n  Since Redis version 1.3.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "HVALS")] (clojure.core/defn hvals "HVALS key\n  Get all the values in a hash\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "INCR")] (clojure.core/defn incr "INCR key\n  Increment the integer value of a key by one\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "INCRBY")] (clojure.core/defn incrby "INCRBY key increment\n  Increment the integer value of a key by the given number\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "INFO")] (clojure.core/defn info "INFO \n  Get information and statistics about the server\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "KEYS")] (clojure.core/defn keys "KEYS pattern\n  Find all keys matching the given pattern\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LASTSAVE")] (clojure.core/defn lastsave "LASTSAVE \n  Get the UNIX time stamp of the last successful save to disk\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "LINDEX")] (clojure.core/defn lindex "LINDEX key index\n  Get an element from a list by its index\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LINSERT")] (clojure.core/defn linsert "LINSERT key BEFORE|AFTER pivot value\n  Insert an element before or after another element in a list\n  Since Redis version 2.1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LLEN")] (clojure.core/defn llen "LLEN key\n  Get the length of a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LPOP")] (clojure.core/defn lpop "LPOP key\n  Remove and get the first element in a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LPUSH")] (clojure.core/defn lpush "LPUSH key value [value ..]\n  Prepend one or multiple values to a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LPUSHX")] (clojure.core/defn lpushx "LPUSHX key value\n  Prepend a value to a list, only if the list exists\n  Since Redis version 2.1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LRANGE")] (clojure.core/defn lrange "LRANGE key start stop\n  Get a range of elements from a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LREM")] (clojure.core/defn lrem "LREM key count value\n  Remove elements from a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LSET")] (clojure.core/defn lset "LSET key index value\n  Set the value of an element in a list by its index\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "LTRIM")] (clojure.core/defn ltrim "LTRIM key start stop\n  Trim a list to the specified range\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "MGET")] (clojure.core/defn mget "MGET key [key ..]\n  Get the values of all the given keys\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "MOVE")] (clojure.core/defn move "MOVE key db\n  Move a key to another database\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "MSET")] (clojure.core/defn mset "MSET [\"key\" \"value\"] [[\"key\" \"value\"] ..]\n  Set multiple keys to multiple values\n  Since Redis version 1.001" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "MSETNX")] (clojure.core/defn msetnx "MSETNX [\"key\" \"value\"] [[\"key\" \"value\"] ..]\n  Set multiple keys to multiple values, only if none of the keys exist\n  Since Redis version 1.001" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "MULTI")] (clojure.core/defn multi "MULTI \n  Mark the start of a transaction block\n  Since Redis version 1.1.95" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "OBJECT")] (clojure.core/defn object "OBJECT subcommand [arguments [arguments ..]]\n  Inspect the internals of Redis objects\n  Since Redis version 2.2.3" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "PERSIST")] (clojure.core/defn persist "PERSIST key\n  Remove the expiration from a key\n  Since Redis version 2.1.2" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "PING")] (clojure.core/defn ping "PING \n  Ping the server\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "PUBLISH")] (clojure.core/defn publish "PUBLISH channel message\n  Post a message to a channel\n  Since Redis version 1.3.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "QUIT")] (clojure.core/defn quit "QUIT \n  Close the connection\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "RANDOMKEY")] (clojure.core/defn randomkey "RANDOMKEY \n  Return a random key from the keyspace\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "RENAME")] (clojure.core/defn rename "RENAME key newkey\n  Rename a key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "RENAMENX")] (clojure.core/defn renamenx "RENAMENX key newkey\n  Rename a key, only if the new key does not exist\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "RPOP")] (clojure.core/defn rpop "RPOP key\n  Remove and get the last element in a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "RPOPLPUSH")] (clojure.core/defn rpoplpush "RPOPLPUSH source destination\n  Remove the last element in a list, append it to another list and return it\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "RPUSH")] (clojure.core/defn rpush "RPUSH key value [value ..]\n  Append one or multiple values to a list\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "RPUSHX")] (clojure.core/defn rpushx "RPUSHX key value\n  Append a value to a list, only if the list exists\n  Since Redis version 2.1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SADD")] (clojure.core/defn sadd "SADD key member [member ..]\n  Add one or more members to a set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SAVE")] (clojure.core/defn save "SAVE \n  Synchronously save the dataset to disk\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "SCARD")] (clojure.core/defn scard "SCARD key\n  Get the number of members in a set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SDIFF")] (clojure.core/defn sdiff "SDIFF key [key ..]\n  Subtract multiple sets\n  Since Redis version 0.100" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SDIFFSTORE")] (clojure.core/defn sdiffstore "SDIFFSTORE destination key [key ..]\n  Subtract multiple sets and store the resulting set in a key\n  Since Redis version 0.100" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SELECT")] (clojure.core/defn select "SELECT index\n  Change the selected database for the current connection\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SET")] (clojure.core/defn set "SET key value\n  Set the string value of a key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SETBIT")] (clojure.core/defn setbit "SETBIT key offset value\n  Sets or clears the bit at offset in the string value stored at key\n  Since Redis version 2.1.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SETEX")] (clojure.core/defn setex "SETEX key seconds value\n  Set the value and expiration of a key\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SETNX")] (clojure.core/defn setnx "SETNX key value\n  Set the value of a key, only if the key does not exist\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SETRANGE")] (clojure.core/defn setrange "SETRANGE key offset value\n  Overwrite part of a string at key starting at the specified offset\n  Since Redis version 2.1.8" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SHUTDOWN")] (clojure.core/defn shutdown "SHUTDOWN \n  Synchronously save the dataset to disk and then shut down the server\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "SINTER")] (clojure.core/defn sinter "SINTER key [key ..]\n  Intersect multiple sets\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SINTERSTORE")] (clojure.core/defn sinterstore "SINTERSTORE destination key [key ..]\n  Intersect multiple sets and store the resulting set in a key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SISMEMBER")] (clojure.core/defn sismember "SISMEMBER key member\n  Determine if a given value is a member of a set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SLAVEOF")] (clojure.core/defn slaveof "SLAVEOF host port\n  Make the server a slave of another instance, or promote it as master\n  Since Redis version 0.100" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SLOWLOG")] (clojure.core/defn slowlog "SLOWLOG subcommand [argument]\n  Manages the Redis slow queries log\n  Since Redis version 2.2.12" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SMEMBERS")] (clojure.core/defn smembers "SMEMBERS key\n  Get all the members in a set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SMOVE")] (clojure.core/defn smove "SMOVE source destination member\n  Move a member from one set to another\n  Since Redis version 0.091" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SORT")] (clojure.core/defn sort "SORT key [BY pattern] [LIMIT offset count] [GET pattern [GET pattern ..]] [ASC|DESC] [ALPHA] [STORE destination]\n  Sort the elements in a list, set or sorted set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SPOP")] (clojure.core/defn spop "SPOP key\n  Remove and return a random member from a set\n  Since Redis version 0.101" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SRANDMEMBER")] (clojure.core/defn srandmember "SRANDMEMBER key\n  Get a random member from a set\n  Since Redis version 1.001" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SREM")] (clojure.core/defn srem "SREM key member [member ..]\n  Remove one or more members from a set\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "STRLEN")] (clojure.core/defn strlen "STRLEN key\n  Get the length of the value stored in a key\n  Since Redis version 2.1.2" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SUNION")] (clojure.core/defn sunion "SUNION key [key ..]\n  Add multiple sets\n  Since Redis version 0.091" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SUNIONSTORE")] (clojure.core/defn sunionstore "SUNIONSTORE destination key [key ..]\n  Add multiple sets and store the resulting set in a key\n  Since Redis version 0.091" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "SYNC")] (clojure.core/defn sync "SYNC \n  Internal command used for replication\n  Since Redis version 0.07" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "TTL")] (clojure.core/defn ttl "TTL key\n  Get the time to live for a key\n  Since Redis version 0.100" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "TYPE")] (clojure.core/defn type "TYPE key\n  Determine the type stored at key\n  Since Redis version 0.07" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "UNWATCH")] (clojure.core/defn unwatch "UNWATCH \n  Forget about all watched keys\n  Since Redis version 2.1.0" [db] (labs.redis.core/cmd* db cmd [])))
+
+(clojure.core/let [cmd (.getBytes "WATCH")] (clojure.core/defn watch "WATCH key [key ..]\n  Watch the given keys to determine execution of the MULTI/EXEC block\n  Since Redis version 2.1.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XACK")] (clojure.core/defn xack "XACK key group ID [ID ..]\n  Marks a pending message as correctly processed, effectively removing it from the pending entries list of the consumer group\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XADD")] (clojure.core/defn xadd "XADD key [MAXLEN count] ID [\"field\" \"value\"] [[\"field\" \"value\"] ..]\n  Appends a new entry to a stream\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XAUTOCLAIM")] (clojure.core/defn xautoclaim "XAUTOCLAIM key group consumer min-idle-time start [COUNT count] [JUSTID]\n  Changes (or acquires) ownership of messages in a consumer group, as if the messages were delivered to the specified consumer\n  Since Redis version 6.2.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XCLAIM")] (clojure.core/defn xclaim "XCLAIM key group consumer min-idle-time ID [ID ..] [IDLE ms] [JUSTID]\n  Changes (or acquires) ownership of a message in a consumer group, as if the message was delivered to the specified consumer\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XDEL")] (clojure.core/defn xdel "XDEL key ID [ID ..]\n  Removes the specified entries from the stream. Returns the number of items actually deleted, that may be different from the number of IDs passed in case certain IDs do not exist\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XGROUP")] (clojure.core/defn xgroup-create "XGROUP CREATE key groupname id [MKSTREAM]\n  Create a consumer group\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["CREATE"] args)))
+
+(clojure.core/let [cmd (.getBytes "XGROUP")] (clojure.core/defn xgroup-delconsumer "XGROUP DELCONSUMER key groupname consumername\n  Delete a consumer from a consumer group\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["DELCONSUMER"] args)))
+
+(clojure.core/let [cmd (.getBytes "XGROUP")] (clojure.core/defn xgroup-destroy "XGROUP DESTROY key groupname\n  Destroy a consumer group\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["DESTROY"] args)))
+
+(clojure.core/let [cmd (.getBytes "XGROUP")] (clojure.core/defn xgroup-setid "XGROUP SETID key groupname id\n  Set a consumer group to an arbitrary last delivered ID value\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["SETID"] args)))
+
+(clojure.core/let [cmd (.getBytes "XINFO")] (clojure.core/defn xinfo-groups "XINFO GROUPS key\n  List the consumer groups of a stream\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["GROUPS"] args)))
+
+(clojure.core/let [cmd (.getBytes "XINFO")] (clojure.core/defn xinfo-stream "XINFO STREAM key\n  Get information about a stream\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd ["STREAM"] args)))
+
+(clojure.core/let [cmd (.getBytes "XLEN")] (clojure.core/defn xlen "XLEN key\n  Return the number of entries in a stream\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XPENDING")] (clojure.core/defn xpending "XPENDING key group [[\"start\" \"end\" \"count\"]] [consumer]\n  Return information and entries from a stream consumer group pending entries list, that are messages fetched but never acknowledged\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XRANGE")] (clojure.core/defn xrange "XRANGE key start end [COUNT count]\n  Return a range of elements in a stream, with IDs matching the specified IDs interval\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XREAD")] (clojure.core/defn xread "XREAD [COUNT count] [BLOCK milliseconds] STREAMS key [key ..] ID [ID ..]\n  Return never seen elements in multiple streams, with IDs greater than the ones reported by the caller for each stream. Can block.\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XREADGROUP")] (clojure.core/defn xreadgroup "XREADGROUP GROUP group consumer [COUNT count] [BLOCK milliseconds] [NOACK] STREAMS key [key ..] ID [ID ..]\n  Return new entries from a stream using a consumer group, or access the history of the pending entries for a given consumer. Can block.\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XREVRANGE")] (clojure.core/defn xrevrange "XREVRANGE key end start [COUNT count]\n  Return a range of elements in a stream, with IDs matching the specified IDs interval, in reverse order (from greater to smaller IDs) compared to XRANGE\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "XTRIM")] (clojure.core/defn xtrim "XTRIM key MAXLEN [~] count\n  Trims the stream to (approximately if '~' is passed) a certain size\n  Since Redis version 5.0.0" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZADD")] (clojure.core/defn zadd "ZADD key score member [score] [member]\n  Add one or more members to a sorted set, or update its score if it already exists\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZCARD")] (clojure.core/defn zcard "ZCARD key\n  Get the number of members in a sorted set\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZCOUNT")] (clojure.core/defn zcount "ZCOUNT key min max\n  Count the members in a sorted set with scores within the given values\n  Since Redis version 1.3.3" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZINCRBY")] (clojure.core/defn zincrby "ZINCRBY key increment member\n  Increment the score of a member in a sorted set\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZINTERSTORE")] (clojure.core/defn zinterstore "ZINTERSTORE destination numkeys key [key ..] [WEIGHTS weight] [AGGREGATE SUM|MIN|MAX]\n  Intersect multiple sorted sets and store the resulting sorted set in a new key\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZRANGE")] (clojure.core/defn zrange "ZRANGE key start stop [WITHSCORES]\n  Return a range of members in a sorted set, by index\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZRANGEBYSCORE")] (clojure.core/defn zrangebyscore "ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]\n  Return a range of members in a sorted set, by score\n  Since Redis version 1.050" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZRANK")] (clojure.core/defn zrank "ZRANK key member\n  Determine the index of a member in a sorted set\n  Since Redis version 1.3.4" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREM")] (clojure.core/defn zrem "ZREM key member [member ..]\n  Remove one or more members from a sorted set\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREMRANGEBYRANK")] (clojure.core/defn zremrangebyrank "ZREMRANGEBYRANK key start stop\n  Remove all members in a sorted set within the given indexes\n  Since Redis version 1.3.4" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREMRANGEBYSCORE")] (clojure.core/defn zremrangebyscore "ZREMRANGEBYSCORE key min max\n  Remove all members in a sorted set within the given scores\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREVRANGE")] (clojure.core/defn zrevrange "ZREVRANGE key start stop [WITHSCORES]\n  Return a range of members in a sorted set, by index, with scores ordered from high to low\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREVRANGEBYSCORE")] (clojure.core/defn zrevrangebyscore "ZREVRANGEBYSCORE key max min [WITHSCORES] [LIMIT offset count]\n  Return a range of members in a sorted set, by score, with scores ordered from high to low\n  Since Redis version 2.1.6" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZREVRANK")] (clojure.core/defn zrevrank "ZREVRANK key member\n  Determine the index of a member in a sorted set, with scores ordered from high to low\n  Since Redis version 1.3.4" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZSCORE")] (clojure.core/defn zscore "ZSCORE key member\n  Get the score associated with the given member in a sorted set\n  Since Redis version 1.1" [db & args] (labs.redis.core/cmd* db cmd [] args)))
+
+(clojure.core/let [cmd (.getBytes "ZUNIONSTORE")] (clojure.core/defn zunionstore "ZUNIONSTORE destination numkeys key [key ..] [WEIGHTS weight] [AGGREGATE SUM|MIN|MAX]\n  Add multiple sorted sets and store the resulting sorted set in a new key\n  Since Redis version 1.3.10" [db & args] (labs.redis.core/cmd* db cmd [] args)))
@@ -5,37 +5,126 @@
   (:use [clojure.repl]
         [clojure.pprint :only (pprint)]
         [clojure.java.io :only (resource)])
-  (:require [clojure.data.json :as json])
-  (:import [labs.redis Client ClientPool Reply ErrorReply IntegerReply BulkReply StatusReply MultiBulkReply LinkedReplyFuture]))
+  (:import [labs.redis Batcher BufferPool Client ClientPool CommandReader SocketFactory Coalescer CompressionCodec Decoder Decoders DecodedReply Reply ErrorReply IntegerReply BulkReply StatusReply MultiBulkReply LinkedReplyFuture]))
 
 (set! *warn-on-reflection* true)
 
 (def ^:private byte-array-class (Class/forName "[B"))
 
-(defn parse-url [url]
+(defn parse-url
+  "Parses redis://[user:password@]host:port or unix:///path/to/redis.sock"
+  [url]
   (let [u (java.net.URI. url)
         ui (.getUserInfo u)
         [user password] (when ui (.split ui ":"))]
-    {:host (.getHost u)
-     :port (.getPort u)
-     :user user
-     :password password}))
+    (if (= "unix" (.getScheme u))
+      {:path (.getPath u)}
+      {:host (.getHost u)
+       :port (.getPort u)
+       :user user
+       :password password})))
+
+(defn- url-opts
+  "Client options from a url, leaving out parts not in it"
+  [url]
+  (into {} (remove (fn [[k v]] (or (nil? v) (= -1 v))) (parse-url url))))
+
+(defn- ^CompressionCodec codec
+  "Creates a CompressionCodec if :compress-threshold is set"
+  [{:keys [compress-threshold compress-level] :or {compress-level 1}}]
+  (when compress-threshold
+    (CompressionCodec. (int compress-threshold) (int compress-level))))
+
+(def ^{:doc "Decodes a bulk payload as EDN (UTF-8, *read-eval* off)."}
+  edn-decoder
+  (reify Decoder
+    (decode [_ b]
+      (binding [*read-eval* false]
+        (read-string (Decoders/string b Client/UTF8))))))
+
+(defn ^Decoder decoder
+  "Returns a Decoder for :bytes :utf8 :long :double :edn, a Decoder, or a fn of a java.nio.ByteBuffer."
+  [d]
+  (cond
+   (instance? Decoder d) d
+   (fn? d) (reify Decoder (decode [_ b] (d b)))
+   :default (case d
+              :bytes Decoders/BYTES
+              :utf8 Decoders/UTF8
+              :long Decoders/LONG
+              :double Decoders/DOUBLE
+              :edn edn-decoder)))
 
 (defn client
-  "Creates and returns an Redis client"
+  "Creates and returns an Redis client.
+  Values (args) of :compress-threshold bytes or more are deflated (at :compress-level, default 1)
+  and inflated again when read through a client with compression enabled.
+  :decoders is a map of command to decoder (see decoder), eg. {:get :utf8 :hget :edn}
+  :path connects to a unix domain socket instead of host and port (Java 16 or later).
+  Also takes a url, see parse-url, eg. (client \"unix:///tmp/redis.sock\")"
   ([] (client {}))
-  ([{:keys [host port timeout]
-     :or {host "localhost" port 6379 timeout 10000}
-     :as opts}]
-     (Client. ^String host ^int port ^int timeout)))
+  ([opts]
+     (if (string? opts)
+       (client (url-opts opts))
+       (let [{:keys [host port timeout path decoders]
+              :or {host "localhost" port 6379 timeout 10000}} opts
+             ^Client c (doto (if path
+                               (Client. (SocketFactory/newChannel path))
+                               (Client. ^String host ^int port ^int timeout))
+                         (.setCodec (codec opts)))]
+         (doseq [[cmd d] decoders]
+           (.setDecoder c (name cmd) (decoder d)))
+         c))))
 
 (defn pool
-  "Creates and returns a pool of Redis clients"
+  "Creates and returns a pool of Redis clients. Takes the same options (or url) as client."
   ([] (pool {}))
-  ([{:keys [host port test-on-borrow]
-     :or {host "localhost" port 6379 test-on-borrow false}
-     :as opts}]
-     (ClientPool. host port test-on-borrow)))
+  ([opts]
+     (if (string? opts)
+       (pool (url-opts opts))
+       (let [{:keys [host port path test-on-borrow decoders]
+              :or {host "localhost" port 6379 test-on-borrow false}} opts
+             ^ClientPool p (doto (if path
+                                   (ClientPool. ^String path (boolean test-on-borrow))
+                                   (ClientPool. ^String host (int port) (boolean test-on-borrow)))
+                             (.setCodec (codec opts)))]
+         (doseq [[cmd d] decoders]
+           (.setDecoder p (name cmd) (decoder d)))
+         p))))
+
+(defn compression-stats
+  "Returns compression metrics for a client or pool, nil if compression is not enabled.
+  :ratio is compressed/uncompressed size, times are CPU time."
+  [db]
+  (when-let [^CompressionCodec c (if (instance? ClientPool db)
+                                   (.getCodec ^ClientPool db)
+                                   (.getCodec ^Client db))]
+    {:compressed (.getCompressed c)
+     :raw-bytes (.getRawBytes c)
+     :compressed-bytes (.getCompressedBytes c)
+     :ratio (.ratio c)
+     :compress-ms (/ (.getCompressNanos c) 1e6)
+     :decompressed (.getDecompressed c)
+     :decompress-ms (/ (.getDecompressNanos c) 1e6)}))
+
+(defn buffer-pool-stats
+  "Returns utilization of the shared pool of direct buffers used by all connections.
+  :leased buffers are held by connections with data in flight, :idle ones are pooled."
+  ([] (buffer-pool-stats BufferPool/DEFAULT))
+  ([^BufferPool p]
+     {:leased (.getLeased p)
+      :leases (.getLeases p)
+      :idle (.getIdle p)
+      :idle-bytes (.getIdleBytes p)
+      :allocated (.getAllocated p)
+      :allocated-bytes (.getAllocatedBytes p)
+      :discarded (.getDiscarded p)}))
+
+(defn buffer-leaks
+  "Returns Throwables with the stack traces of buffer leases not yet released.
+  Only tracked in debug mode, -Dlabs.redis.debug=true or (.setDebug BufferPool/DEFAULT true)"
+  ([] (buffer-leaks BufferPool/DEFAULT))
+  ([^BufferPool p] (seq (.outstanding p))))
 
 ;; (defmacro with-pool [name pool & body]
 ;;   `(let [~name (.borrow ~pool)]
@@ -65,8 +154,11 @@
 
 (extend-protocol StringCoerce
   (Class/forName "[B")  (->str [reply] (String. ^bytes reply))
-  BulkReply (->str [reply] (let [bs (.bytes reply)] (when bs (String. bs))))
-  MultiBulkReply (->str [reply] (when-let [v (value reply)] (map ->str v)))
+  BulkReply (->str [reply] (let [bs (.getValue reply)] (when bs (String. bs))))
+  DecodedReply (->str [reply] (->str (.value reply)))
+  MultiBulkReply (->str [reply] (if (.isCompact reply)
+                                  (seq (.strings reply))
+                                  (when-let [v (value reply)] (map ->str v))))
   StatusReply (->str [reply] (->str @reply))
   LinkedReplyFuture (->str [reply] (->str @reply))
   Object (->str [reply] (.toString reply))
@@ -74,7 +166,9 @@
 
 (defn ->strs [reply]
   (when reply
-    (map ->str (value reply))))
+    (if (and (instance? MultiBulkReply reply) (.isCompact ^MultiBulkReply reply))
+      (seq (.strings ^MultiBulkReply reply))
+      (map ->str (value reply)))))
 
 (defn ->>str [r]
   (when r
@@ -91,6 +185,7 @@
              (Class/forName "[B")  (->str r)
 
              BulkReply (->cli @r)
+             DecodedReply (->cli @r)
              StatusReply (->str @r)
              ErrorReply (str "(error) " (value r))
              MultiBulkReply (if-let [values (seq (value r))]
@@ -115,6 +210,35 @@
    (instance? byte-array-class v) v
    :default (.toString ^Object v)))
 
+(defn- cmd-args
+  "Converts cmd and args to the Object[] Client wants"
+  [cmd ks]
+  (let [cv (flatten (map cmd-arg-convert ks))]
+    (into-array java.lang.Object (cons cmd cv))))
+
+(def ^:dynamic ^Decoder *decoder*
+  "Decoder for bulk replies of commands sent by cmd*, see with-decoder"
+  nil)
+
+(defmacro with-decoder
+  "Decode bulk replies of commands sent in body with (decoder d), eg.
+  @@(with-decoder :long (get db \"counter\")) => 42"
+  [d & body]
+  `(binding [*decoder* (decoder ~d)]
+     ~@body))
+
+(def ^:dynamic *compact*
+  "Read multi bulk replies of commands sent by cmd* in compact form, see with-compact"
+  false)
+
+(defmacro with-compact
+  "Multi bulk replies of plain bulks to commands sent in body are read into one byte[],
+  ->strs creates the Strings straight from it. Combines with with-decoder, elements are
+  decoded when taken out with value. (->strs @(with-compact (mget db \"a\" \"b\")))"
+  [& body]
+  `(binding [*compact* true]
+     ~@body))
+
 (defprotocol AsyncCommand
   (cmd*
     [client cmd ks] [client cmd ks1 ks2]
@@ -126,9 +250,11 @@
   (cmd*
     ([R cmd ks1 ks2] (cmd* R cmd (concat ks1 ks2)))
     ([R cmd ks]
-     (let [cv (flatten (map cmd-arg-convert ks))
-           args (into-array java.lang.Object (cons cmd cv))]
-       (.pipeline R args))))
+     (let [args (cmd-args cmd ks)]
+       (cond
+        *compact* (.pipelineCompact R *decoder* args)
+        *decoder* (.pipeline R *decoder* args)
+        :else (.pipeline R args)))))
 
   labs.redis.ClientPool
   (cmd*
@@ -148,21 +274,102 @@
   (cmd**
     ([R cmd ks1 ks2] (cmd* R cmd (concat ks1 ks2)))
     ([R cmd ks]
-       (let [cv (flatten (map cmd-arg-convert ks))
-             args (into-array java.lang.Object (cons cmd cv))]
-         (.send R args))))
+       (.send R (cmd-args cmd ks))))
 
   labs.redis.ClientPool
   (cmd**
     ([R cmd ks1 ks2] (cmd* R cmd (concat ks1 ks2)))
     ([R cmd ks] (with-pool client R (cmd** client cmd ks)))))
 
+;; single-flight
+(deftype Coalescing [db ^Coalescer coalescer]
+  AsyncCommand
+  (cmd* [R cmd ks1 ks2] (cmd* R cmd (concat ks1 ks2)))
+  (cmd* [R cmd ks]
+    (if (.coalesces coalescer cmd)
+      (let [args (cmd-args cmd ks)]
+        (if (instance? ClientPool db)
+          (.pipeline coalescer ^ClientPool db *decoder* (boolean *compact*) ^objects args)
+          (.pipeline coalescer ^Client db *decoder* (boolean *compact*) ^objects args)))
+      ;; reads after this one must not share a reply sent before it
+      (try (cmd* db cmd ks)
+           (finally (.invalidate coalescer)))))
+
+  SyncCommand
+  (cmd** [R cmd ks1 ks2] (cmd** R cmd (concat ks1 ks2)))
+  (cmd** [R cmd ks]
+    (try (cmd** db cmd ks)
+         (finally (.invalidate coalescer)))))
+
+(defn coalescing
+  "Wraps a client or pool so identical concurrent reads share one command on the wire.
+  While eg. (get db \"k\") is in flight, other callers of (get db \"k\") get the same future.
+  Other commands pass through and end coalescing onto reads sent before them, so a read
+  after (set db \"k\" ..) through the same wrapper always sees the write.
+  Don't use in MULTI/EXEC. commands defaults to Coalescer/READ_COMMANDS."
+  ([db] (Coalescing. db (Coalescer.)))
+  ([db commands] (Coalescing. db (Coalescer. (into-array String (map #(.toUpperCase (name %)) commands))))))
+
+(defn coalescing-stats
+  "Returns {:sent n :saved n :inflight n} for a coalescing wrapper"
+  [^Coalescing db]
+  (let [^Coalescer c (.coalescer db)]
+    {:sent (.getSent c)
+     :saved (.getSaved c)
+     :inflight (.getInflight c)}))
+
+;; auto-batching
+(deftype Batching [db ^Batcher batcher]
+  AsyncCommand
+  (cmd* [R cmd ks1 ks2] (cmd* R cmd (concat ks1 ks2)))
+  (cmd* [R cmd ks]
+    (if-let [f (and (.batches batcher cmd)
+                    (.batch batcher *decoder* (cmd-args cmd ks)))]
+      f
+      (do (.flush batcher)
+          (cmd* db cmd ks))))
+
+  SyncCommand
+  (cmd** [R cmd ks1 ks2] (.flush batcher) (cmd** db cmd ks1 ks2))
+  (cmd** [R cmd ks] (.flush batcher) (cmd** db cmd ks)))
+
+(defn auto-batching
+  "Wraps a client or pool so single key GETs (and HGETs of the same hash) issued within
+  :window-us microseconds (default 200), or until :max-batch (default 128) are pending,
+  are sent as one MGET (HMGET). Each caller still gets its own future. Other commands
+  flush pending reads first and pass through. Futures block until their batch is sent.
+  Unlike GET, a batched GET of a key that isn't a string (eg. a list) returns nil, not a
+  WRONGTYPE error, as MGET does. Close with (.close (.batcher db)), batched reads after
+  that throw."
+  ([db] (auto-batching db {}))
+  ([db {:keys [window-us max-batch] :or {window-us 200 max-batch 128}}]
+     (let [window (* 1000 (long window-us))
+           batcher (if (instance? ClientPool db)
+                     (Batcher. ^ClientPool db window (int max-batch))
+                     (Batcher. ^Client db window (int max-batch)))]
+       (Batching. db batcher))))
+
+(defn batching-stats
+  "Returns {:batched n :batches n} for an auto-batching wrapper"
+  [^Batching db]
+  (let [^Batcher b (.batcher db)]
+    {:batched (.getBatched b)
+     :batches (.getBatches b)}))
+
 ;; high level redis commands
 
-(def REDIS-COMMANDS
-  (dissoc (json/read-json (slurp (resource "commands.json")))
+(defn redis-commands
+  "Reads the redis.io command documentation from commands.json. Only used to
+  (re)generate commands.clj, see spit-cmds, so clojure.data.json is loaded here"
+  []
+  (require 'clojure.data.json)
+  (dissoc ((resolve 'clojure.data.json/read-json) (slurp (resource "commands.json")))
           :SUBSCRIBE :UNSUBSCRIBE :PSUBSCRIBE :PUNSUBSCRIBE :MONITOR))
 
+(def ^{:deprecated "0.1.2"} REDIS-COMMANDS
+  "Deprecated, use (redis-commands). The command documentation, now a delay: @REDIS-COMMANDS"
+  (delay (redis-commands)))
+
 (defn- redis-doc-str
   "Creates a doc string matching http://redis.io"
   ;; ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]
@@ -203,9 +410,9 @@
         params (if (second args) ['args])
         dox (fn-docs n m)
         ]
-    `(let [name# (.getBytes ~cmd-name)]
+    `(let [~'cmd (.getBytes ~cmd-name)]
        (defn ~(symbol fn-name) ~dox ~args
-         (cmd* ~'db name# ~static-args ~@params)))
+         (cmd* ~'db ~'cmd ~static-args ~@params)))
     ))
 
 (defn- create-cmd
@@ -213,17 +420,27 @@
   [n m]
   (clojure.core/eval (create-cmd* n m)))
 
-(defn create-cmds []
-  (doseq [[cmd-name cmd-def] REDIS-COMMANDS]
+(defn create-cmds
+  "Creates the command fns at runtime from commands.json, eg. to try out an edited
+  commands.json at the REPL without regenerating commands.clj"
+  []
+  (doseq [[cmd-name cmd-def] (redis-commands)]
     ;; (println "adding " cmd-name)
     (create-cmd (name cmd-name) cmd-def)))
 
-(defn spit-cmds [f]
-  (spit f (pr-str
-           (for [[cmd-name cmd-def] REDIS-COMMANDS]
-             (create-cmd* (name cmd-name) cmd-def)))))
+(defn spit-cmds
+  "Generates the command fns loaded below from commands.json. Run after editing commands.json:
+  (spit-cmds \"src/labs/redis/commands.clj\")"
+  [f]
+  (spit f (with-out-str
+            (println ";; Generated from commands.json by (spit-cmds \"src/labs/redis/commands.clj\"), do not edit.")
+            (prn '(in-ns 'labs.redis.core))
+            (doseq [[cmd-name cmd-def] (sort-by key (redis-commands))]
+              (println)
+              (prn (create-cmd* (name cmd-name) cmd-def))))))
 
-(create-cmds)
+;; command fns, precompiled by spit-cmds so loading needs no JSON parsing or eval
+(load "commands")
 
 
 ;; EVAL
@@ -303,6 +520,198 @@
                                   (cmd** db UNSUBSCRIBE channels))
                                 (recur subscribed-channels))))))))
 
+;; Streams
+(defn- stream-entries
+  "Parses a multi bulk of stream entries into [[id fields] ..], fields is a map of
+  String to byte[] (nil if the entry has been deleted)"
+  [r]
+  (for [e (value r)
+        :let [^objects v (value e)]]
+    [(->str (aget v 0))
+     (when-let [fs (value (aget v 1))]
+       (into {} (map (fn [[f v]] [(->str f) (value v)]) (partition 2 fs))))]))
+
+(defn- id-millis [^String id]
+  (Long/parseLong (subs id 0 (.indexOf id "-"))))
+
+(defn- info-map
+  "Flat field/value multi bulk (XINFO) to a map of String to value, bulks as Strings"
+  [r]
+  (into {} (for [[k v] (partition 2 (value r))
+                 :let [x (value v)]]
+             [(->str k) (if (instance? byte-array-class x) (String. ^bytes x) x)])))
+
+(defn- reply! [r]
+  (let [r @r]
+    (if (instance? ErrorReply r)
+      (throw (IllegalStateException. ^String (value r)))
+      r)))
+
+(defn stream-worker
+  "Consumes a stream with a consumer group on a dedicated connection, calling
+  (handler id fields) for each entry on a bounded pool of :threads. fields is a map of
+  String to byte[]. Entries are acked (pipelined, :ack-batch ids per XACK) when handler
+  returns, entries where handler throws stay pending and are reclaimed with XAUTOCLAIM
+  after :min-idle-ms. Acks go out before each XREADGROUP, so idle acks wait up to :block-ms.
+  Options:
+    :stream :group :consumer :handler  required
+    :client                        client options for the dedicated connection
+    :count 100 :block-ms 1000      XREADGROUP COUNT and BLOCK
+    :threads 8 :queue 1024         worker pool, the reader runs handlers itself when full
+    :ack-batch 512
+    :claim-interval-ms 30000 :min-idle-ms 60000
+    :info-interval-ms 1000         how often group lag and pending are sampled (XINFO GROUPS,
+                                   and XINFO STREAM before Redis 7)
+    :create-group true             XGROUP CREATE stream group $ MKSTREAM if missing
+  Returns a worker for stream-worker-stats and stop-stream-worker."
+  [{:keys [stream group consumer handler client count block-ms threads queue ack-batch
+           claim-interval-ms min-idle-ms info-interval-ms create-group]
+    :or {client {} count 100 block-ms 1000 threads 8 queue 1024 ack-batch 512
+         claim-interval-ms 30000 min-idle-ms 60000 info-interval-ms 1000 create-group true}}]
+  (when-not (and stream group consumer handler)
+    (throw (IllegalArgumentException. "stream-worker needs :stream :group :consumer and :handler")))
+  (let [running (atom true)
+        stats (into {} (for [k [:read :processed :failed :acked :claimed :errors]]
+                         [k (java.util.concurrent.atomic.AtomicLong.)]))
+        inc! (fn [k n] (.addAndGet ^java.util.concurrent.atomic.AtomicLong (stats k) n))
+        last-id (atom nil)
+        group-info (atom nil)
+        info-at (atom 0)
+        last-error (atom nil)
+        conn (atom nil)
+        acks (java.util.concurrent.ConcurrentLinkedQueue.)
+        pool (java.util.concurrent.ThreadPoolExecutor.
+              (int threads) (int threads) 60 java.util.concurrent.TimeUnit/SECONDS
+              (java.util.concurrent.ArrayBlockingQueue. (int queue))
+              (java.util.concurrent.ThreadPoolExecutor$CallerRunsPolicy.))
+        dispatch (fn [entries]
+                   (doseq [[id fields] entries]
+                     (if (nil? fields)
+                       (.add acks id) ;; deleted while pending
+                       (.execute pool
+                                 (fn []
+                                   (try
+                                     (handler id fields)
+                                     (inc! :processed 1)
+                                     (.add acks id)
+                                     (catch Throwable t
+                                       (inc! :failed 1)
+                                       (reset! last-error t))))))))
+        send-acks (fn [db]
+                    (loop [futures []]
+                      (let [ids (loop [ids [] n 0]
+                                  (if-let [id (and (< n ack-batch) (.poll acks))]
+                                    (recur (conj ids id) (inc n))
+                                    ids))]
+                        (if (seq ids)
+                          (recur (conj futures [(cmd* db "XACK" [stream group] ids) (clojure.core/count ids)]))
+                          futures))))
+        started (System/currentTimeMillis)
+        thread
+        (Thread.
+         ^Runnable
+         (fn []
+           (loop [next-claim 0 cursor "0-0"]
+             (if-not @running
+               (do
+                 (.shutdown pool)
+                 (.awaitTermination pool 1 java.util.concurrent.TimeUnit/MINUTES)
+                 (when-let [^Client db @conn]
+                   (try
+                     (doseq [[f n] (send-acks db)] (reply! f) (inc! :acked n))
+                     (finally
+                      (.close db)))))
+               (let [[next-claim cursor]
+                     (try
+                       (let [^Client db (or @conn (reset! conn (labs.redis.core/client client)))]
+                         (when (and create-group (= 0 next-claim))
+                           (let [r @(cmd* db "XGROUP" ["CREATE" stream group "$" "MKSTREAM"])]
+                             (when (and (instance? ErrorReply r)
+                                        (not (.startsWith ^String (value r) "BUSYGROUP")))
+                               (throw (IllegalStateException. ^String (value r))))))
+                         (let [ack-futures (send-acks db)
+                               now (System/currentTimeMillis)
+                               [next-claim cursor]
+                               (if (< now next-claim)
+                                 [next-claim cursor]
+                                 (let [claim (cmd* db "XAUTOCLAIM" [stream group consumer min-idle-ms cursor
+                                                                    "COUNT" count])
+                                       ^objects c (value (reply! claim))
+                                       entries (stream-entries (aget c 1))]
+                                   (inc! :claimed (clojure.core/count entries))
+                                   (dispatch entries)
+                                   [(+ now claim-interval-ms) (->str (aget c 0))]))
+                               ;; XINFO STREAM (it carries the first and last entries) only while
+                               ;; the group doesn't report lag, before Redis 7
+                               info (when (>= now (+ @info-at info-interval-ms))
+                                      (reset! info-at now)
+                                      [(cmd* db "XINFO" ["GROUPS" stream])
+                                       (when (nil? (clojure.core/get @group-info "lag"))
+                                         (cmd* db "XINFO" ["STREAM" stream]))])
+                               r (reply! (cmd* db "XREADGROUP" ["GROUP" group consumer "COUNT" count
+                                                                "BLOCK" block-ms "STREAMS" stream ">"]))]
+                           (doseq [[f n] ack-futures] (reply! f) (inc! :acked n))
+                           (when-let [[groups info] info]
+                             (let [g (first (filter #(= group (% "name")) (map info-map (value (reply! groups)))))]
+                               (reset! group-info (if info
+                                                    (assoc g "last-generated-id"
+                                                           ((info-map (reply! info)) "last-generated-id"))
+                                                    g))))
+                           (doseq [s (value r)
+                                   :let [entries (stream-entries (aget ^objects (value s) 1))]]
+                             (inc! :read (clojure.core/count entries))
+                             (when-let [[id] (last entries)] (reset! last-id id))
+                             (dispatch entries))
+                           [next-claim cursor]))
+                       (catch Throwable t
+                         (inc! :errors 1)
+                         (reset! last-error t)
+                         (when-let [^Client db @conn]
+                           (reset! conn nil)
+                           (try (.close db) (catch Throwable _)))
+                         (Thread/sleep block-ms)
+                         [next-claim cursor]))]
+                 (recur (long next-claim) cursor)))))
+         (str "labs.redis.stream-worker:" stream ":" group ":" consumer))]
+    (.setDaemon thread true)
+    (.start thread)
+    {:running running
+     :thread thread
+     :stats stats
+     :started started
+     :last-id last-id
+     :group-info group-info
+     :last-error last-error}))
+
+(defn stream-worker-stats
+  "Returns counters of a stream-worker and the group state as of the last XINFO sample:
+  :lag      entries not yet delivered to the group (Redis 7 or later, else nil)
+  :lag-ms   time between the last entry added and the last delivered to the group, from
+            XINFO STREAM, so only where :lag isn't reported (before Redis 7, else nil)
+  :pending  entries delivered to the group but not acked
+  :last-entry-age-ms  age of the last entry this worker read"
+  [{:keys [stats started last-id group-info last-error]}]
+  (let [counts (into {} (for [[k ^java.util.concurrent.atomic.AtomicLong v] stats] [k (.get v)]))
+        secs (/ (- (System/currentTimeMillis) started) 1000.0)
+        g @group-info
+        generated (clojure.core/get g "last-generated-id")
+        delivered (clojure.core/get g "last-delivered-id")]
+    (assoc counts
+      :per-sec (/ (:processed counts) (max secs 0.001))
+      :lag (clojure.core/get g "lag")
+      :lag-ms (when (and generated delivered (not= "0-0" delivered))
+                (max 0 (- (id-millis generated) (id-millis delivered))))
+      :pending (clojure.core/get g "pending")
+      :last-entry-age-ms (when-let [id @last-id] (- (System/currentTimeMillis) (id-millis id)))
+      :last-error @last-error)))
+
+(defn stop-stream-worker
+  "Stops reading, waits for handlers and final acks. Returns within :block-ms plus handler time."
+  [{:keys [running ^Thread thread]}]
+  (reset! running false)
+  (.join thread))
+
+
 ;; Transactions
 ;; Like atomically in redis-clojure
 (defn exec!
@@ -341,7 +750,231 @@ Any exceptions thrown by DISCARD will be ignored."
     (zipmap (map first f) (map second f))))
 
 
-(defn -main []
-  (pprint
-   (let [r (client)]
-     (->>str @(ping r)))))
+;; Mass insertion
+(defn- bulk-args [cmd]
+  (if (instance? (Class/forName "[Ljava.lang.Object;") cmd)
+    cmd
+    (into-array java.lang.Object (flatten (map cmd-arg-convert cmd)))))
+
+(defn bulk-load
+  "Mass insertion of commands, like redis-cli --pipe.
+  cmds is a seq of commands, eg. [[\"SET\" \"k1\" \"v1\"] [:sadd \"s\" 1 2 3]], or a java.io.File
+  of commands in the Redis protocol (as for redis-cli --pipe) or inline, one per line with
+  redis-cli quoting (SET k \"two words\\n\" 'it\\'s'), see labs.redis.CommandReader.
+  Commands are written back-to-back while a reader thread skips the replies, so nothing
+  is allocated per reply. Returns {:sent :replies :errors :elapsed-ms}.
+  Options:
+    :on-error       (fn [index error-string]) called for each error reply
+    :on-progress    (fn [sent replies errors]) called every :progress-every replies
+    :progress-every defaults to 100000
+  The client should not be used by other threads while loading. If loading fails, including
+  on-error or on-progress throwing, the client is closed and the exception rethrown."
+  ([db cmds] (bulk-load db cmds {}))
+  ([^Client db cmds {:keys [on-error on-progress progress-every]
+                     :or {progress-every 100000}}]
+     (let [listener (reify labs.redis.BulkLoader$Listener
+                      (error [_ index e] (when on-error (on-error index (.getValue e))))
+                      (progress [_ sent replies errors]
+                        (when on-progress (on-progress sent replies errors))))
+           load (fn [^java.util.Iterator cmds]
+                  (.bulkLoad db cmds listener (long progress-every)))
+           ^labs.redis.BulkLoader$Result r (if (instance? java.io.File cmds)
+                                             (with-open [in (clojure.java.io/input-stream cmds)]
+                                               (load (CommandReader. in)))
+                                             (load (.iterator ^Iterable (map bulk-args cmds))))]
+       {:sent (.sent r)
+        :replies (.replies r)
+        :errors (.errors r)
+        :elapsed-ms (quot (.nanos r) 1000000)})))
+
+
+;; Load generator
+(def ^:private bench-commands
+  ;; name, generated fn, args for key number i and value v
+  {:ping ["PING" ping (fn [i v] [])]
+   :set ["SET" set (fn [i v] [(str "key:" i) v])]
+   :get ["GET" get (fn [i v] [(str "key:" i)])]
+   :incr ["INCR" incr (fn [i v] [(str "counter:" i)])]
+   :hset ["HSET" hset (fn [i v] [(str "hash:" (quot i 100)) (str "field:" (rem i 100)) v])]
+   :hget ["HGET" hget (fn [i v] [(str "hash:" (quot i 100)) (str "field:" (rem i 100))])]
+   :mget ["MGET" mget (fn [i v] (map #(str "key:" (+ i %)) (range 10)))]})
+
+(defn- bench-sender
+  "Returns (fn [cmd i v]) sending one command through api, a LinkedReplyFuture"
+  [api db]
+  (case api
+    :pipeline (let [^Client c db
+                    names (into {} (for [[k [n]] bench-commands] [k (.getBytes ^String n)]))]
+                (fn [cmd i v]
+                  (let [[_ _ args] (bench-commands cmd)]
+                    (.pipeline c ^objects (into-array Object (cons (names cmd) (args i v)))))))
+    (:fns :pool) (fn [cmd i v]
+                   (let [[_ f args] (bench-commands cmd)]
+                     (apply f db (args i v))))))
+
+(defn- percentile [^longs sorted p]
+  (if (zero? (alength sorted))
+    0.0
+    (/ (aget sorted (int (* p (dec (alength sorted))))) 1000.0)))
+
+(defn benchmark
+  "Runs a redis-benchmark style load through the client and returns throughput and
+  latency (microseconds, from pipelining a command until its reply is read) of the
+  requests that completed. Requests of clients that failed (eg. connection refused)
+  count as :failed and :errors, as do error replies; :last-failure is the exception.
+  Options:
+    :clients 50 :requests 100000    concurrent connections (threads), total requests
+    :pipeline 1                     commands in flight per client
+    :keyspace 100000                keys are picked at random from key:0..keyspace
+    :size [3 3]                     value size range in bytes for SET and HSET
+    :mix {:get 1 :set 1}            command weights, of :ping :set :get :incr :hset :hget :mget
+    :api :fns                       :fns (generated fns), :pipeline (Client.pipeline) or :pool (ClientPool)
+    :db {}                          client options or url, see client
+    :warmup 10000                   requests run first and not measured"
+  [{:keys [clients requests pipeline keyspace size mix api db warmup]
+    :or {clients 50 requests 100000 pipeline 1 keyspace 100000 size [3 3]
+         mix {:get 1 :set 1} api :fns db {} warmup 10000}
+    :as opts}]
+  (when (pos? warmup)
+    (benchmark (assoc opts :requests warmup :warmup 0)))
+  (let [clients (int clients)
+        requests (long requests)
+        [min-size max-size] size
+        rnd (java.util.Random. 42)
+        values (vec (for [_ (range 64)]
+                      (let [^bytes b (byte-array (+ min-size (.nextInt rnd (inc (- max-size min-size)))))]
+                        (java.util.Arrays/fill b (byte (int \x)))
+                        b)))
+        cmds (vec (mapcat (fn [[cmd w]] (repeat w cmd)) mix))
+        _ (doseq [cmd cmds]
+            (when-not (bench-commands cmd)
+              (throw (IllegalArgumentException. (str "Unsupported command " cmd)))))
+        p (when (= api :pool) (labs.redis.core/pool db))
+        latencies (doto (long-array requests) (java.util.Arrays/fill -1))
+        errors (java.util.concurrent.atomic.AtomicLong.)
+        failure (atom nil)
+        start (java.util.concurrent.CountDownLatch. 1)
+        workers
+        (doall
+         (for [w (range clients)
+               :let [from (quot (* w requests) clients)
+                     to (quot (* (inc w) requests) clients)
+                     rnd (java.util.Random. w)]]
+           (doto (Thread.
+                  ^Runnable
+                  (fn []
+                    ;; connect before the clock starts, a failure ends this worker's share
+                    (let [conn (try (or p (labs.redis.core/client db)) (catch Throwable t t))]
+                      (.await start)
+                      (try
+                        (when (instance? Throwable conn)
+                          (throw ^Throwable conn))
+                        (let [send! (bench-sender api conn)
+                              sent (long-array pipeline)
+                              futures (object-array pipeline)]
+                          (loop [i from]
+                            (when (< i to)
+                              (let [n (min pipeline (- to i))]
+                                (dotimes [j n]
+                                  (aset sent j (System/nanoTime))
+                                  (aset futures j (send! (cmds (.nextInt rnd (count cmds)))
+                                                         (.nextInt rnd (int keyspace))
+                                                         (values (.nextInt rnd (count values))))))
+                                (dotimes [j n]
+                                  (when (instance? ErrorReply @(aget futures j))
+                                    (.incrementAndGet errors))
+                                  (aset latencies (+ i j) (- (System/nanoTime) (aget sent j))))
+                                (recur (+ i n))))))
+                        (catch Throwable t
+                          (reset! failure t))
+                        (finally
+                         (when (and (nil? p) (instance? Client conn))
+                           (.close ^Client conn))))))
+                  (str "labs.redis.benchmark:" w))
+             (.start))))
+        t0 (System/nanoTime)]
+    (try
+      (.countDown start)
+      (doseq [^Thread t workers] (.join t))
+      (let [seconds (/ (- (System/nanoTime) t0) 1e9)
+            _ (java.util.Arrays/sort latencies)
+            ;; requests of failed workers were never timed, they sort first as -1
+            failed (loop [k 0]
+                     (if (and (< k requests) (neg? (aget latencies k))) (recur (inc k)) k))
+            timed (java.util.Arrays/copyOfRange latencies (int failed) (int requests))]
+        {:requests requests
+         :failed failed
+         :errors (+ failed (.get errors))
+         :last-failure @failure
+         :seconds seconds
+         :ops-per-sec (/ (- requests failed) seconds)
+         :latency-us {:p50 (percentile timed 0.5)
+                      :p99 (percentile timed 0.99)
+                      :p999 (percentile timed 0.999)
+                      :max (percentile timed 1.0)}})
+      (finally
+       (when p (.flush ^ClientPool p))))))
+
+(def ^:private bench-usage
+  "Usage: lein run [options]
+  -c --clients n      concurrent clients (default 50)
+  -n --requests n     total requests (default 100000)
+  -P --pipeline n     commands in flight per client (default 1)
+  -r --keyspace n     random keys from key:0 to key:n-1 (default 100000)
+  -d --size n[-m]     value size or size range in bytes (default 3)
+  -t --mix cmds       weighted commands, eg. get:9,set:1 (default get,set)
+                      of ping set get incr hset hget mget
+     --api api        fns (generated command fns), pipeline (Client.pipeline) or pool
+  -h --host host      (default localhost)
+  -p --port port      (default 6379)
+     --url url        eg. unix:///tmp/redis.sock
+     --stand-in       run against an in-process LoopbackServer instead of redis-server
+     --warmup n       requests run first and not measured (default 10000)")
+
+(defn- parse-bench-args [args]
+  (let [aliases {"-c" "--clients" "-n" "--requests" "-P" "--pipeline" "-r" "--keyspace"
+                 "-d" "--size" "-t" "--mix" "-h" "--host" "-p" "--port"}
+        number #(Long/parseLong %)]
+    (loop [opts {:db {}} [a v & more :as args] args]
+      (let [a (clojure.core/get aliases a a)]
+        (cond
+         (empty? args) opts
+         (= a "--stand-in") (recur (assoc opts :stand-in true) (rest args))
+         (= a "--help") (recur (assoc opts :help true) (rest args))
+         (nil? v) (throw (IllegalArgumentException. (str "Missing value for " a)))
+         :default
+         (recur
+          (case a
+            "--clients" (assoc opts :clients (number v))
+            "--requests" (assoc opts :requests (number v))
+            "--pipeline" (assoc opts :pipeline (number v))
+            "--keyspace" (assoc opts :keyspace (number v))
+            "--warmup" (assoc opts :warmup (number v))
+            "--size" (assoc opts :size (let [[lo hi] (.split ^String v "-")]
+                                         [(number lo) (number (or hi lo))]))
+            "--mix" (assoc opts :mix (into {} (for [c (.split ^String v ",")
+                                                    :let [[cmd w] (.split ^String c ":")]]
+                                                [(keyword (.toLowerCase ^String cmd)) (if w (number w) 1)])))
+            "--api" (assoc opts :api (keyword v))
+            "--host" (assoc-in opts [:db :host] v)
+            "--port" (assoc-in opts [:db :port] (number v))
+            "--url" (assoc opts :db (url-opts v))
+            (throw (IllegalArgumentException. (str "Unknown option " a))))
+          more))))))
+
+(defn -main
+  "Load generator, see bench-usage. Prints throughput and latency percentiles."
+  [& args]
+  (let [{:keys [stand-in help] :as opts} (parse-bench-args args)]
+    (if help
+      (println bench-usage)
+      (let [server (when stand-in (.start (labs.redis.LoopbackServer. 0)))
+            opts (if server (assoc-in opts [:db :port] (.getPort server)) opts)
+            {:keys [requests errors seconds ops-per-sec latency-us last-failure]} (benchmark (dissoc opts :stand-in))]
+        (println (format "%d requests in %.2f s, %.0f requests/s, %d errors"
+                         requests seconds ops-per-sec errors))
+        (when last-failure
+          (println "failed:" last-failure))
+        (println (apply format "latency us: p50 %.1f  p99 %.1f  p999 %.1f  max %.1f"
+                        (map latency-us [:p50 :p99 :p999 :max])))
+        (when server (.close server))))))